@@ -0,0 +1,42 @@
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded worker queue that is served first-in-first-out normally and last-in-first-out while overloaded.
+ * Under sustained overload the oldest waiters belong to clients that have most likely given up already, so the
+ * workers serve the newest ones first and the old ones are dropped once they finally reach a worker.
+ */
+public class AdaptiveTaskQueue extends LinkedBlockingDeque<Runnable> {
+    private static final long serialVersionUID = 1L;
+
+    private volatile boolean isLifo = false;
+
+    /**
+     * @param capacity - the maximum number of waiting tasks
+     */
+    public AdaptiveTaskQueue(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * @param lifo - true to hand the newest task to the next free worker, false for the oldest one
+     */
+    public void setLifo(boolean lifo) {
+        isLifo = lifo;
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        return isLifo ? takeLast() : takeFirst();
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return isLifo ? pollLast(timeout, unit) : pollFirst(timeout, unit);
+    }
+
+    @Override
+    public Runnable poll() {
+        return isLifo ? pollLast() : pollFirst();
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A listener for operational commands, bound to the loopback address only so that it cannot be reached remotely.
+ * It is enabled by the "adminPort" key of the config.ini file and understands a single command,
+ * "POST /shutdown", which exits the process through the JVM shutdown hook, so the engine shuts down gracefully
+ * exactly as it does on SIGTERM.
+ */
+public class AdminListener {
+    private static final String SHUTDOWN_REQUEST_LINE = "POST /shutdown ";
+
+    private AdminListener() {
+    }
+
+    /**
+     * Starts a daemon thread that serves the admin commands, unless the admin port is 0.
+     *
+     * @param serverConfig - the server configuration
+     * @throws IOException if unable to bind to the admin port
+     */
+    public static void start(ServerConfiguration serverConfig) throws IOException {
+        if (serverConfig.getAdminPort() == 0) {
+            return;
+        }
+
+        ServerSocket adminSocket = new ServerSocket(serverConfig.getAdminPort(), 1, InetAddress.getLoopbackAddress());
+        Thread adminThread = new Thread(() -> serveCommands(adminSocket, serverConfig.getHeaderReadTimeout()), "admin-listener");
+        adminThread.setDaemon(true);
+        adminThread.start();
+        System.out.println("Admin listener started on " + adminSocket.getInetAddress().getHostAddress() + ":" + adminSocket.getLocalPort());
+    }
+
+    /**
+     * Answers the admin connections one at a time.
+     *
+     * @param adminSocket - the listening admin socket
+     * @param readTimeout - how long to wait for the request line, in milliseconds
+     */
+    private static void serveCommands(ServerSocket adminSocket, int readTimeout) {
+        while (!adminSocket.isClosed()) {
+            boolean isShutdownRequested = false;
+
+            try (Socket adminClient = adminSocket.accept()) {
+                adminClient.setSoTimeout(readTimeout);
+                BufferedReader commandReader = new BufferedReader(new InputStreamReader(adminClient.getInputStream(), StandardCharsets.US_ASCII));
+                String requestLine = commandReader.readLine();
+
+                if (requestLine != null && requestLine.startsWith(SHUTDOWN_REQUEST_LINE)) {
+                    adminClient.getOutputStream().write(HTTPResponse.encodeAccepted());
+                    isShutdownRequested = true;
+                } else {
+                    adminClient.getOutputStream().write(HTTPResponse.encodeErrorResponse(404));
+                }
+            } catch (IOException e) {
+                System.out.println("Admin connection has disconnected " + e.getMessage());
+            }
+
+            if (isShutdownRequested) {
+                System.out.println("Shutdown requested through the admin listener.");
+                // System.exit() blocks until the shutdown hook completed, so the listener keeps its own thread free.
+                new Thread(() -> System.exit(0), "admin-shutdown").start();
+            }
+        }
+    }
+}
@@ -0,0 +1,468 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A completion based web server built on the NIO.2 asynchronous channels.
+ * Accepts, reads and writes are only started by the server, and continue in CompletionHandlers that run on the
+ * threads of an AsynchronousChannelGroup once the operating system completed them, so no thread ever waits on a
+ * socket. As in the nio engine, only fully received requests are dispatched to the ClientHandler logic on the
+ * worker threads.
+ */
+public class AsyncWebServer implements ServerEngine {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_PIPELINED_BATCH = 16;
+    private static final long DRAIN_POLL_INTERVAL = 50;
+
+    private final ServerConfiguration serverConfig;
+    private final WorkerPool workerPool;
+    private final ConnectionContext.Pool contextPool;
+    private final byte[] serviceUnavailableResponse;
+    private final byte[] requestTimeoutResponse = HTTPResponse.encodeErrorResponse(408);
+    private final byte[] continueResponse = HTTPResponse.encodeContinue();
+    private final Set<Connection> openConnections = ConcurrentHashMap.newKeySet();
+    private volatile AsynchronousChannelGroup channelGroup;
+    private volatile AsynchronousServerSocketChannel serverChannel;
+    private volatile boolean isDraining = false;
+
+    /**
+     * Constructs an AsyncWebServer object with the given server configuration.
+     *
+     * @param serverConfig - the server configuration
+     */
+    public AsyncWebServer(ServerConfiguration serverConfig) {
+        this.serverConfig = serverConfig;
+        this.workerPool = new WorkerPool(serverConfig);
+        this.contextPool = new ConnectionContext.Pool(serverConfig);
+        this.serviceUnavailableResponse = HTTPResponse.encodeServiceUnavailable(serverConfig.getRetryAfter());
+    }
+
+    /**
+     * Opens the channel group and the listening channel, starts accepting, and then waits on the calling thread
+     * until the server is shut down.
+     */
+    @Override
+    public void start() throws IOException {
+        AtomicInteger threadCounter = new AtomicInteger();
+        channelGroup = AsynchronousChannelGroup.withFixedThreadPool(serverConfig.getEventLoopThreads(),
+                runnable -> new Thread(runnable, "async-io-" + threadCounter.getAndIncrement()));
+
+        try {
+            serverChannel = AsynchronousServerSocketChannel.open(channelGroup);
+            SocketTuning.configureListener(serverChannel, serverConfig);
+            serverChannel.bind(SocketTuning.listenAddress(serverConfig), serverConfig.getBacklog());
+        } catch (IOException e) {
+            channelGroup.shutdownNow();
+            throw e;
+        }
+
+        System.out.println("Web server (async engine, " + serverConfig.getEventLoopThreads() + " channel group threads) started on port " + serverConfig.getPort());
+        acceptNextConnection();
+
+        try {
+            channelGroup.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the listening channel and the idle keep-alive connections, then waits for the other connections to be
+     * answered and closed. Once they are, or the grace period is over, the channel group is terminated.
+     */
+    @Override
+    public void shutdown() {
+        System.out.println("Shutting down, draining " + openConnections.size() + " connections for up to "
+                + serverConfig.getShutdownGracePeriod() + " ms");
+        isDraining = true;
+
+        if (serverChannel != null) {
+            closeQuietly(serverChannel);
+        }
+
+        for (Connection connection : openConnections) {
+            connection.closeIfIdle();
+        }
+
+        long drainDeadline = System.currentTimeMillis() + serverConfig.getShutdownGracePeriod();
+        try {
+            while (!openConnections.isEmpty() && System.currentTimeMillis() < drainDeadline) {
+                Thread.sleep(DRAIN_POLL_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!openConnections.isEmpty()) {
+            System.out.println("Shutdown grace period is over, closing " + openConnections.size() + " connections");
+
+            for (Connection connection : openConnections) {
+                connection.close();
+            }
+        }
+
+        workerPool.shutdownNow();
+        if (channelGroup != null) {
+            try {
+                channelGroup.shutdownNow();
+            } catch (IOException e) {
+                System.out.println("Error closing resources: " + e.getMessage());
+            }
+        }
+
+        System.out.println("Web server stopped");
+    }
+
+    /**
+     * Starts accepting the next connection. Every accepted connection starts the accept of the one after it.
+     */
+    private void acceptNextConnection() {
+        serverChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            @Override
+            public void completed(AsynchronousSocketChannel clientChannel, Void attachment) {
+                acceptNextConnection();
+
+                try {
+                    SocketTuning.configureClient(clientChannel, serverConfig);
+                } catch (IOException e) {
+                    closeQuietly(clientChannel);
+                    WebServer.notifyInternalServerError(null, e.getMessage());
+                    return;
+                }
+
+                new Connection(clientChannel).readRequest();
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                if (serverChannel.isOpen()) {
+                    WebServer.notifyInternalServerError(null, e.getMessage());
+                    acceptNextConnection();
+                }
+            }
+        });
+    }
+
+    /**
+     * The state of a single client connection. At most one read or write of a connection is in progress at any time,
+     * and every completion starts the next operation, so its state is only touched by one thread at a time.
+     */
+    private class Connection {
+        private final AsynchronousSocketChannel channel;
+        private final RequestFramer framer = new RequestFramer(serverConfig);
+        private final ReadHandler readHandler = new ReadHandler();
+        private final WriteHandler writeHandler = new WriteHandler();
+        private final ContinueHandler continueHandler = new ContinueHandler();
+        private volatile boolean isIdle = false;
+        private boolean keepAlive = false;
+        private int handledRequests = 0;
+        private long lastReadAt = 0;
+        private long requestStartedAt = 0;
+        private long bodyStartedAt = 0;
+        private ScheduledFuture<?> requestDeadline;
+
+        Connection(AsynchronousSocketChannel channel) {
+            this.channel = channel;
+            openConnections.add(this);
+        }
+
+        /**
+         * Starts reading the next bytes of a request. The read times out at the end of the phase the request is in:
+         * the idle timeout while waiting for a request, then the header, body and request deadlines.
+         */
+        void readRequest() {
+            long now = System.currentTimeMillis();
+            long readTimeout;
+
+            if (framer.isEmpty()) {
+                isIdle = handledRequests > 0;
+                readTimeout = isIdle ? serverConfig.getKeepAliveTimeout() : serverConfig.getHeaderReadTimeout();
+
+                // Checked after marking the connection idle, so that either this check or shutdown() sees the other.
+                if (isIdle && isDraining) {
+                    close();
+                    return;
+                }
+            } else {
+                long phaseEnd = framer.isReadingBody() ? bodyStartedAt + serverConfig.getBodyReadTimeout()
+                        : requestStartedAt + serverConfig.getHeaderReadTimeout();
+                readTimeout = Math.min(phaseEnd, requestStartedAt + serverConfig.getRequestDeadline()) - now;
+            }
+
+            // The buffer is only held while the read is in progress, an idle connection holds none once it completed.
+            BufferPool.PooledBuffer readBuffer = BufferPool.acquire(READ_BUFFER_SIZE);
+            channel.read(readBuffer.buffer(), Math.max(readTimeout, 1), TimeUnit.MILLISECONDS, readBuffer, readHandler);
+        }
+
+        /**
+         * Reads on, after sending "100 Continue" first if the client waits for it before sending the entity body.
+         */
+        private void continueReading() {
+            if (framer.pollContinue()) {
+                ByteBuffer interimResponse = ByteBuffer.wrap(continueResponse);
+                channel.write(interimResponse, serverConfig.getWriteTimeout(), TimeUnit.MILLISECONDS, interimResponse, continueHandler);
+            } else {
+                readRequest();
+            }
+        }
+
+        void closeIfIdle() {
+            if (isIdle) {
+                close();
+            }
+        }
+
+        /**
+         * Dispatches the fully received requests as one batch. Reading is paused until the batch was answered,
+         * so responses go out in the order of the requests.
+         *
+         * @return true if a batch was dispatched, false if more bytes have to be read first
+         * @throws IOException if unable to write a spilled entity body to its temporary file
+         */
+        private boolean dispatchNextRequests() throws IOException {
+            List<RequestFramer.FramedRequest> batch = new ArrayList<>();
+            RequestFramer.FramedRequest framedRequest;
+
+            while (batch.size() < MAX_PIPELINED_BATCH && (framedRequest = framer.poll()) != null) {
+                batch.add(framedRequest);
+            }
+
+            if (batch.isEmpty()) {
+                return false;
+            }
+
+            int firstRequestNumber = handledRequests + 1;
+            handledRequests += batch.size();
+            bodyStartedAt = 0;
+            // The deadline runs from the first byte of the request, what is left of it covers answering the batch.
+            long deadlineLeft = requestStartedAt + serverConfig.getRequestDeadline() - System.currentTimeMillis();
+            requestDeadline = TimeoutWatchdog.schedule(() -> abort("deadline"), deadlineLeft);
+
+            workerPool.execute(() -> answerBatch(batch, firstRequestNumber), () -> {
+                RequestFramer.releaseBodies(batch, 0);
+                writeResponse(OutgoingResponse.of(BufferPool.wrap(serviceUnavailableResponse)), false);
+            });
+            return true;
+        }
+
+        /**
+         * Answers the requests of a batch one after the other into a single buffer, on a worker thread.
+         * The requests that follow one that closes the connection are dropped.
+         *
+         * @param batch - the fully received requests, in the order they arrived
+         * @param firstRequestNumber - the number of the first request of the batch on this connection
+         */
+        private void answerBatch(List<RequestFramer.FramedRequest> batch, int firstRequestNumber) {
+            ConnectionContext context = contextPool.acquire();
+            ClientHandler clientHandler = new ClientHandler(serverConfig, context);
+            OutgoingResponse outgoingResponse;
+            boolean keepConnectionAlive = true;
+            int answered = 0;
+
+            try {
+                while (answered < batch.size() && keepConnectionAlive) {
+                    RequestFramer.FramedRequest framedRequest = batch.get(answered);
+                    boolean mayKeepAlive = firstRequestNumber + answered < serverConfig.getKeepAliveMaxRequests() && !isDraining;
+                    keepConnectionAlive = clientHandler.handleBufferedRequest(framedRequest, mayKeepAlive);
+                    answered++;
+                }
+                // The bytes are copied out, as the context goes back to the pool before they are written.
+                outgoingResponse = context.getResponseBuffer().toOutgoingResponse();
+            } finally {
+                contextPool.release(context);
+            }
+            RequestFramer.releaseBodies(batch, answered);
+            // The worker is done with the heads, and the framer does not poll again before the batch was written.
+            framer.recycle(batch);
+
+            writeResponse(outgoingResponse, keepConnectionAlive);
+        }
+
+        private void writeResponse(OutgoingResponse response, boolean keepConnectionAlive) {
+            keepAlive = keepConnectionAlive;
+            writeHandler.completed(0, response);
+        }
+
+        private void respondWithRequestTimeout() {
+            String timeoutName = framer.isReadingBody() ? "body" : "header";
+
+            if (System.currentTimeMillis() - requestStartedAt >= serverConfig.getRequestDeadline()) {
+                timeoutName = "deadline";
+            }
+
+            ServerMetrics.increment("timeouts." + timeoutName);
+            writeResponse(OutgoingResponse.of(BufferPool.wrap(requestTimeoutResponse)), false);
+        }
+
+        private void abort(String timeoutName) {
+            ServerMetrics.increment("timeouts." + timeoutName);
+            close();
+        }
+
+        void close() {
+            if (requestDeadline != null) {
+                requestDeadline.cancel(false);
+            }
+
+            if (openConnections.remove(this)) {
+                closeQuietly(channel);
+                framer.release();
+            }
+        }
+
+        /**
+         * Frames the received bytes, and either dispatches the completed requests or reads on.
+         * The framer copies the bytes out of the read buffer, which goes back to the pool once they were handled.
+         */
+        private class ReadHandler implements CompletionHandler<Integer, BufferPool.PooledBuffer> {
+            @Override
+            public void completed(Integer bytesRead, BufferPool.PooledBuffer readBuffer) {
+                isIdle = false;
+
+                if (bytesRead < 0) {
+                    readBuffer.release();
+                    close();
+                    return;
+                }
+
+                long now = System.currentTimeMillis();
+                lastReadAt = now;
+                if (framer.isEmpty()) {
+                    requestStartedAt = now;
+                }
+
+                readBuffer.buffer().flip();
+
+                try {
+                    framer.append(readBuffer.buffer());
+
+                    if (!dispatchNextRequests()) {
+                        if (bodyStartedAt == 0 && framer.isReadingBody()) {
+                            bodyStartedAt = now;
+                        }
+                        continueReading();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Error receiving request body: " + e.getMessage());
+                    close();
+                } finally {
+                    readBuffer.release();
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, BufferPool.PooledBuffer readBuffer) {
+                isIdle = false;
+                readBuffer.release();
+
+                // A client that sent part of a request for too long is answered, an idle one is closed silently.
+                if (e instanceof InterruptedByTimeoutException && !framer.isEmpty()) {
+                    respondWithRequestTimeout();
+                } else {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Writes the rest of a response, then waits for the next request or closes the connection.
+         * An asynchronous channel cannot take a file transfer, file regions are read into pooled direct buffers,
+         * so their bytes do not pass through the heap either.
+         */
+        private class WriteHandler implements CompletionHandler<Integer, OutgoingResponse> {
+            @Override
+            public void completed(Integer bytesWritten, OutgoingResponse response) {
+                ByteBuffer nextBytes;
+
+                try {
+                    nextBytes = response.nextBuffer();
+                } catch (IOException e) {
+                    System.out.println("Error reading response file: " + e.getMessage());
+                    response.release();
+                    close();
+                    return;
+                }
+
+                if (nextBytes != null) {
+                    channel.write(nextBytes, serverConfig.getWriteTimeout(), TimeUnit.MILLISECONDS, response, this);
+                    return;
+                }
+
+                response.release();
+
+                if (requestDeadline != null) {
+                    requestDeadline.cancel(false);
+                    requestDeadline = null;
+                }
+
+                // Reading was paused, so the start of the next request in the framer came with the last read.
+                if (!framer.isEmpty()) {
+                    requestStartedAt = lastReadAt;
+                }
+
+                if (keepAlive && !isDraining) {
+                    try {
+                        if (!dispatchNextRequests()) {
+                            continueReading();
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Error receiving request body: " + e.getMessage());
+                        close();
+                    }
+                } else {
+                    close();
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, OutgoingResponse response) {
+                response.release();
+
+                if (e instanceof InterruptedByTimeoutException) {
+                    ServerMetrics.increment("timeouts.write");
+                }
+
+                close();
+            }
+        }
+
+        /**
+         * Writes the rest of a "100 Continue" interim response, then reads the entity body.
+         */
+        private class ContinueHandler implements CompletionHandler<Integer, ByteBuffer> {
+            @Override
+            public void completed(Integer bytesWritten, ByteBuffer interimResponse) {
+                if (interimResponse.hasRemaining()) {
+                    channel.write(interimResponse, serverConfig.getWriteTimeout(), TimeUnit.MILLISECONDS, interimResponse, this);
+                } else {
+                    readRequest();
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, ByteBuffer interimResponse) {
+                close();
+            }
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing resources: " + e.getMessage());
+        }
+    }
+}
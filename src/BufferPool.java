@@ -0,0 +1,209 @@
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct ByteBuffers in a few size classes, shared by the socket reads and the response writes of the
+ * non-blocking engines. Channels copy a heap buffer into a temporary direct buffer on every read and write,
+ * direct buffers are handed to the kernel as they are, and pooling them saves their costly allocation.
+ * Every class keeps a bounded number of released buffers, requests above the largest class get an unpooled
+ * heap buffer.
+ * With leak detection enabled, a buffer that becomes unreachable without being released is reported together
+ * with the stack trace of its acquisition, the counters "buffers.*" tell how the pool is used either way.
+ */
+public class BufferPool {
+    private static final int[] CLASS_SIZES = {4096, 16384, 65536, 1048576};
+    private static final String[] CLASS_NAMES = {"4k", "16k", "64k", "1m"};
+    // At most 4 MB per class stay pooled, 8 MB of the largest one.
+    private static final int[] CLASS_MAX_RETAINED = {1024, 256, 64, 8};
+    private static final String[] ACQUIRED_COUNTERS = counterNames("acquired");
+    private static final String[] ALLOCATED_COUNTERS = counterNames("allocated");
+    private static final String[] RELEASED_COUNTERS = counterNames("released");
+
+    private static final Queue<ByteBuffer>[] pooledBuffers = createQueues();
+    private static final AtomicInteger[] pooledCounts = createCounts();
+    private static volatile Cleaner leakDetector = null;
+
+    private BufferPool() {
+    }
+
+    private static String[] counterNames(String event) {
+        String[] names = new String[CLASS_NAMES.length];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "buffers." + CLASS_NAMES[i] + "." + event;
+        }
+
+        return names;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Queue<ByteBuffer>[] createQueues() {
+        Queue<ByteBuffer>[] queues = new Queue[CLASS_SIZES.length];
+
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        return queues;
+    }
+
+    private static AtomicInteger[] createCounts() {
+        AtomicInteger[] counts = new AtomicInteger[CLASS_SIZES.length];
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new AtomicInteger();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Enables the leak detection, which records a stack trace on every acquisition, so it is meant for debugging.
+     *
+     * @param leakDetection - true to report the buffers that are never released
+     */
+    public static void configure(boolean leakDetection) {
+        if (leakDetection && leakDetector == null) {
+            leakDetector = Cleaner.create();
+        }
+    }
+
+    /**
+     * Takes a cleared buffer of at least the given capacity from the pool.
+     *
+     * @param capacity - the number of bytes needed
+     * @return the buffer, to be released once it is not used anymore
+     */
+    public static PooledBuffer acquire(int capacity) {
+        int sizeClass = findSizeClass(capacity);
+
+        if (sizeClass < 0) {
+            ServerMetrics.increment("buffers.unpooled");
+            return new PooledBuffer(ByteBuffer.allocate(capacity), -1);
+        }
+
+        ServerMetrics.increment(ACQUIRED_COUNTERS[sizeClass]);
+        ByteBuffer buffer = pooledBuffers[sizeClass].poll();
+
+        if (buffer != null) {
+            pooledCounts[sizeClass].decrementAndGet();
+            buffer.clear();
+        } else {
+            ServerMetrics.increment(ALLOCATED_COUNTERS[sizeClass]);
+            buffer = ByteBuffer.allocateDirect(CLASS_SIZES[sizeClass]);
+        }
+
+        return new PooledBuffer(buffer, sizeClass);
+    }
+
+    /**
+     * Wraps bytes that do not come from the pool, e.g. a pre-encoded response, so they can be written like a
+     * pooled buffer. Releasing it does nothing.
+     *
+     * @param bytes - the bytes to wrap
+     * @return the unpooled buffer, ready to be read
+     */
+    public static PooledBuffer wrap(byte[] bytes) {
+        return new PooledBuffer(ByteBuffer.wrap(bytes), -1);
+    }
+
+    private static int findSizeClass(int capacity) {
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            if (capacity <= CLASS_SIZES[i]) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void giveBack(ByteBuffer buffer, int sizeClass) {
+        ServerMetrics.increment(RELEASED_COUNTERS[sizeClass]);
+
+        // A buffer beyond the bound is left to the garbage collector, which frees its memory.
+        if (pooledCounts[sizeClass].incrementAndGet() <= CLASS_MAX_RETAINED[sizeClass]) {
+            pooledBuffers[sizeClass].offer(buffer);
+        } else {
+            pooledCounts[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * A buffer taken from the pool. The handle is owned by one user at a time and must be released exactly once.
+     */
+    public static class PooledBuffer {
+        private final ByteBuffer buffer;
+        private final int sizeClass;
+        private final LeakTracker leakTracker;
+        private final Cleaner.Cleanable cleanable;
+        private boolean isReleased = false;
+
+        private PooledBuffer(ByteBuffer buffer, int sizeClass) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+            Cleaner detector = leakDetector;
+
+            if (detector != null && sizeClass >= 0) {
+                leakTracker = new LeakTracker(CLASS_NAMES[sizeClass]);
+                cleanable = detector.register(this, leakTracker);
+            } else {
+                leakTracker = null;
+                cleanable = null;
+            }
+        }
+
+        /**
+         * @return the buffer, which must not be used once the handle was released
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * Returns the buffer to the pool.
+         */
+        public void release() {
+            if (isReleased) {
+                ServerMetrics.increment("buffers.double-released");
+                return;
+            }
+
+            isReleased = true;
+
+            if (leakTracker != null) {
+                leakTracker.isReleased = true;
+                cleanable.clean();
+            }
+
+            if (sizeClass >= 0) {
+                giveBack(buffer, sizeClass);
+            }
+        }
+    }
+
+    /**
+     * Reports a pooled buffer whose handle became unreachable before it was released.
+     * It must not reference the handle, otherwise the handle would never become unreachable.
+     */
+    private static class LeakTracker implements Runnable {
+        private final String className;
+        private final Throwable acquisition = new Throwable("Buffer acquired here");
+        private volatile boolean isReleased = false;
+
+        LeakTracker(String className) {
+            this.className = className;
+        }
+
+        @Override
+        public void run() {
+            if (!isReleased) {
+                ServerMetrics.increment("buffers.leaked");
+                System.out.println("Leaked a " + className + " buffer that was never released:");
+                acquisition.printStackTrace(System.out);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+
+/**
+ * An incremental decoder for entity bodies sent with "Transfer-Encoding: chunked" (RFC 7230, section 4.1).
+ * The bytes are fed in as they arrive, in pieces of any size: the chunk data goes straight to a RequestBody.Receiver,
+ * and the chunk sizes, chunk extensions and trailer fields are checked and dropped byte by byte.
+ */
+public class ChunkedDecoder {
+    private static final int MAX_CHUNK_SIZE_DIGITS = 15;
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private static final int CHUNK_SIZE_START = 0;
+    private static final int IN_CHUNK_SIZE = 1;
+    private static final int IN_CHUNK_EXTENSION = 2;
+    private static final int CHUNK_SIZE_LF = 3;
+    private static final int IN_CHUNK_DATA = 4;
+    private static final int CHUNK_DATA_CR = 5;
+    private static final int CHUNK_DATA_LF = 6;
+    private static final int TRAILER_LINE_START = 7;
+    private static final int IN_TRAILER_LINE = 8;
+    private static final int TRAILER_LINE_LF = 9;
+    private static final int FINAL_LF = 10;
+    private static final int COMPLETE = 11;
+    private static final int INVALID = 12;
+    private static final int TOO_LARGE = 13;
+
+    private final long maxBodySize;
+    private int state = CHUNK_SIZE_START;
+    private long chunkSize = 0;
+    private long chunkRemaining = 0;
+    private long decodedLength = 0;
+    private int sizeDigits = 0;
+    private int lineLength = 0;
+
+    /**
+     * @param maxBodySize - the largest decoded body accepted, in bytes, 0 for no limit
+     */
+    public ChunkedDecoder(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Decodes the given bytes, up to the end of the body at most.
+     *
+     * @param bytes - the received bytes
+     * @param offset - the index of the first byte
+     * @param count - the number of bytes
+     * @param receiver - the receiver of the decoded chunk data
+     * @return the number of bytes that belonged to the body, the following ones are the next request
+     * @throws IOException if the receiver is unable to write to its temporary file
+     */
+    public int decode(byte[] bytes, int offset, int count, RequestBody.Receiver receiver) throws IOException {
+        int index = offset;
+        int end = offset + count;
+
+        while (index < end && state != COMPLETE && state != INVALID && state != TOO_LARGE) {
+            if (state == IN_CHUNK_DATA) {
+                int dataBytes = (int) Math.min(chunkRemaining, end - index);
+                receiver.write(bytes, index, dataBytes);
+                chunkRemaining -= dataBytes;
+                index += dataBytes;
+
+                if (chunkRemaining == 0) {
+                    state = CHUNK_DATA_CR;
+                }
+            } else {
+                advance(bytes[index]);
+                index++;
+            }
+        }
+
+        return index - offset;
+    }
+
+    private void advance(byte b) {
+        switch (state) {
+            case CHUNK_SIZE_START:
+                chunkSize = hexValue(b);
+                sizeDigits = 1;
+                lineLength = 1;
+                state = (chunkSize >= 0) ? IN_CHUNK_SIZE : INVALID;
+                break;
+            case IN_CHUNK_SIZE:
+                int digit = hexValue(b);
+
+                if (digit >= 0) {
+                    chunkSize = chunkSize * 16 + digit;
+                    state = (++sizeDigits <= MAX_CHUNK_SIZE_DIGITS) ? IN_CHUNK_SIZE : INVALID;
+                } else if (b == ';' || b == ' ' || b == '\t') {
+                    state = IN_CHUNK_EXTENSION;
+                } else {
+                    endChunkSizeLine(b);
+                }
+                break;
+            case IN_CHUNK_EXTENSION:
+                // Chunk extensions are allowed, and ignored.
+                if (b == '\r' || b == '\n') {
+                    endChunkSizeLine(b);
+                } else if (++lineLength > MAX_LINE_LENGTH) {
+                    state = INVALID;
+                }
+                break;
+            case CHUNK_SIZE_LF:
+                endChunkSizeLine(b);
+                break;
+            case CHUNK_DATA_CR:
+                state = (b == '\r') ? CHUNK_DATA_LF : (b == '\n') ? CHUNK_SIZE_START : INVALID;
+                break;
+            case CHUNK_DATA_LF:
+                state = (b == '\n') ? CHUNK_SIZE_START : INVALID;
+                break;
+            case TRAILER_LINE_START:
+                if (b == '\r') {
+                    state = FINAL_LF;
+                } else if (b == '\n') {
+                    state = COMPLETE;
+                } else {
+                    lineLength = 1;
+                    state = IN_TRAILER_LINE;
+                }
+                break;
+            case IN_TRAILER_LINE:
+                // Trailer fields are not used by the server, so they are skipped.
+                if (b == '\r') {
+                    state = TRAILER_LINE_LF;
+                } else if (b == '\n') {
+                    state = TRAILER_LINE_START;
+                } else if (++lineLength > MAX_LINE_LENGTH) {
+                    state = INVALID;
+                }
+                break;
+            case TRAILER_LINE_LF:
+                state = (b == '\n') ? TRAILER_LINE_START : INVALID;
+                break;
+            case FINAL_LF:
+                state = (b == '\n') ? COMPLETE : INVALID;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Handles a byte that ends the chunk size, which is either the line break that ends its line or invalid.
+     *
+     * @param b - the byte following the chunk size or its extensions
+     */
+    private void endChunkSizeLine(byte b) {
+        if (b == '\r' && state != CHUNK_SIZE_LF) {
+            state = CHUNK_SIZE_LF;
+        } else if (b != '\n') {
+            state = INVALID;
+        } else if (chunkSize == 0) {
+            state = TRAILER_LINE_START;
+        } else if (maxBodySize > 0 && decodedLength + chunkSize > maxBodySize) {
+            state = TOO_LARGE;
+        } else {
+            decodedLength += chunkSize;
+            chunkRemaining = chunkSize;
+            state = IN_CHUNK_DATA;
+        }
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return true once the last chunk and the trailer were decoded
+     */
+    public boolean isComplete() {
+        return state == COMPLETE;
+    }
+
+    /**
+     * @return true if the body is not validly chunked
+     */
+    public boolean isInvalid() {
+        return state == INVALID;
+    }
+
+    /**
+     * @return true if the chunks add up to more than the largest body accepted
+     */
+    public boolean isTooLarge() {
+        return state == TOO_LARGE;
+    }
+}
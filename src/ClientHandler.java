@@ -1,37 +1,71 @@
 import java.io.*;
 import java.net.Socket;
-import java.net.URLDecoder;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Java class that handles a TCP connection between a multithreading server and processes
  * GET, POST, HEAD, and TRACE HTTP methods.
  */
 public class ClientHandler implements Runnable {
-    private final String CRLF = "\r\n";
     private final Socket clientSocket;
     private final ServerConfiguration serverConfig;
+    private final ConnectionContext.Pool contextPool;
+    private ConnectionContext context;
 
     private HTTPRequest request;
     private HTTPResponse response;
-    private BufferedReader socketDataReader = null;
+    private InputStream socketInput = null;
+    // Received bytes not consumed yet are readBuffer[readPosition, readLimit).
+    private byte[] readBuffer = null;
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private ConnectionContext.ResponseBuffer socketDataWriter = null;
+    private RequestFramer.FramedRequest bufferedRequest = null;
+    private volatile String expiredTimeout = null;
+    private volatile boolean isReadingRequest = false;
+    private boolean isDraining = false;
+    private boolean isIdle = false;
 
     /**
      * Constructs a ClientHandler object with the given client socket and server configuration.
+     * The handler takes a context from the pool once it starts serving the connection, and returns it once the
+     * connection is closed.
      *
      * @param clientSocket - the client socket
      * @param serverConfiguration - the server configuration
+     * @param contextPool - the pool of the engine's connection contexts
      * @throws IllegalArgumentException if the client socket is null
      */
-    public ClientHandler(Socket clientSocket, ServerConfiguration serverConfiguration) {
+    public ClientHandler(Socket clientSocket, ServerConfiguration serverConfiguration, ConnectionContext.Pool contextPool) {
         if (clientSocket == null) {
             throw new IllegalArgumentException("Client socket cannot be null!");
         }
 
         this.clientSocket = clientSocket;
         this.serverConfig = serverConfiguration;
+        this.contextPool = contextPool;
+    }
+
+    /**
+     * Constructs a ClientHandler object for requests that were already read by a non-blocking engine.
+     * Such a handler does not own a socket: the responses are collected in the response buffer of the given
+     * context, and the engine is responsible for delivering them.
+     *
+     * @param serverConfiguration - the server configuration
+     * @param context - the context the engine's worker took from the pool for the batch of requests
+     */
+    public ClientHandler(ServerConfiguration serverConfiguration, ConnectionContext context) {
+        this.clientSocket = null;
+        this.serverConfig = serverConfiguration;
+        this.contextPool = null;
+        this.context = context;
     }
 
     @Override
@@ -40,55 +74,334 @@ public class ClientHandler implements Runnable {
     }
 
     /**
-     * Handles the client request by reading the incoming data from the socket input buffer and processing the HTTP request.
+     * Handles the client requests by reading the incoming data from the socket input buffer and processing the HTTP requests.
+     * The connection is kept open for further requests as long as the client asks for it, up to the configured
+     * number of requests per connection, and is closed once the client stays idle for the keep-alive timeout.
+     * Pipelined requests are parsed from the same read buffer, and their responses are only flushed once
+     * no further request is waiting in it.
+     * Once the server drains its connections for a shutdown, the current request is the last one of the connection.
      */
     private void handleClientRequest(){
+        context = contextPool.acquire();
+
         try {
-            String requestString = readIncomingDataFromSocket();
-            this.request = new HTTPRequest(requestString, serverConfig);
-            this.response = new HTTPResponse(request);
-            this.response.initialize(clientSocket.getOutputStream());
+            SocketTuning.configureClient(clientSocket, serverConfig);
+            socketInput = clientSocket.getInputStream();
+            readBuffer = context.getReadBuffer();
+            socketDataWriter = context.getResponseBuffer();
+            socketDataWriter.attach(new WriteTimeoutOutputStream(clientSocket, serverConfig.getWriteTimeout()));
+            int handledRequests = 0;
+            boolean keepAlive = true;
 
-            if (request.isRequestValid()) {
-                processHttpRequest();
-            } else {
-                response.sendErrorResponse(400);
+            while (keepAlive) {
+                int idleTimeout = (handledRequests > 0) ? serverConfig.getKeepAliveTimeout() : serverConfig.getHeaderReadTimeout();
+                if (!waitForNextRequest(idleTimeout, handledRequests > 0)) {
+                    break;
+                }
+
+                ScheduledFuture<?> requestDeadline = armTimeout("deadline", serverConfig.getRequestDeadline());
+                try {
+                    HTTPRequestParser requestHead = readIncomingDataFromSocket();
+                    if (requestHead == null) {
+                        respondToExpiredTimeout();
+                        break;
+                    }
+
+                    handledRequests++;
+                    boolean mayKeepAlive = handledRequests < serverConfig.getKeepAliveMaxRequests() && !isDraining();
+                    keepAlive = respondToRequest(requestHead, mayKeepAlive);
+                } finally {
+                    requestDeadline.cancel(false);
+                }
             }
         } catch (IOException e) {
             WebServer.notifyInternalServerError(response, e.getMessage());
         } finally {
             close();
+            contextPool.release(context);
         }
     }
 
     /**
-     * Reads the incoming data from the socket's input buffer.
+     * Waits until the first byte of the next request arrives.
+     * A keep-alive connection waiting for its next request is idle, and is closed as soon as the server drains.
      *
-     * @return the incoming data from the socket
+     * @param idleTimeout - how long to wait, in milliseconds
+     * @param isKeepAliveWait - true if the connection already served a request
+     * @return true if a request is arriving, false if the client closed the connection, stayed idle, or the server drains
+     * @throws IOException if unable to flush the previous responses
      */
-    private String readIncomingDataFromSocket() {
-        String requestLine;
-        StringBuilder requestPartsContainer = new StringBuilder();
+    private boolean waitForNextRequest(int idleTimeout, boolean isKeepAliveWait) throws IOException {
+        int bytesRead;
+        flushIfNoPendingInput();
+
+        if (readPosition < readLimit) {
+            return true;
+        }
+
+        clientSocket.setSoTimeout(idleTimeout);
+        if (isKeepAliveWait && !setIdle(true)) {
+            return false;
+        }
 
         try {
-            socketDataReader = new BufferedReader(new InputStreamReader(this.clientSocket.getInputStream(), StandardCharsets.UTF_8));
+            bytesRead = readMore();
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            if (isKeepAliveWait) {
+                setIdle(false);
+            }
+        }
+
+        // drain() shuts the input down while the connection is idle, which discards whatever arrived meanwhile.
+        if (bytesRead < 0 || clientSocket.isInputShutdown()) {
+            return false;
+        }
 
-            while ((requestLine = socketDataReader.readLine()) != null && !requestLine.isEmpty()) {
-                requestPartsContainer.append(requestLine);
+        // From here on the read timeouts are enforced by the watchdog, which also catches clients that trickle bytes.
+        clientSocket.setSoTimeout(0);
+        return true;
+    }
 
-                if (!requestLine.endsWith(CRLF)) {
-                    requestPartsContainer.append(CRLF);
+    /**
+     * Makes the current request the last one of the connection, and closes the connection right away if it is idle.
+     * Called by the engine when a shutdown starts.
+     */
+    public synchronized void drain() {
+        isDraining = true;
+
+        if (isIdle) {
+            try {
+                clientSocket.shutdownInput();
+            } catch (IOException e) {
+                System.out.println("Error closing resources: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the connection without waiting for its handler, used once the shutdown grace period is over.
+     * The handler thread then fails on its next socket call and finishes.
+     */
+    public void abort() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing resources: " + e.getMessage());
+        }
+    }
+
+    private synchronized boolean isDraining() {
+        return isDraining;
+    }
+
+    /**
+     * @param idle - true when the connection starts waiting for its next request, false once it stopped waiting
+     * @return false if the connection may not become idle because the server drains
+     */
+    private synchronized boolean setIdle(boolean idle) {
+        if (idle && isDraining) {
+            return false;
+        }
+
+        isIdle = idle;
+        return true;
+    }
+
+    /**
+     * Arms a timeout of the current request. When it expires while the request is being read, the socket input is
+     * shut down so that the blocked read returns and the client is answered with 408. When it expires while the
+     * response is being written, the connection is aborted.
+     *
+     * @param timeoutName - the name of the timeout, used for the metrics
+     * @param timeoutMillis - the timeout in milliseconds
+     * @return the future to cancel once the guarded phase completed in time
+     */
+    private ScheduledFuture<?> armTimeout(String timeoutName, int timeoutMillis) {
+        return TimeoutWatchdog.schedule(() -> {
+            expiredTimeout = timeoutName;
+            ServerMetrics.increment("timeouts." + timeoutName);
+
+            try {
+                if (isReadingRequest) {
+                    clientSocket.shutdownInput();
+                } else {
+                    clientSocket.close();
                 }
+            } catch (IOException e) {
+                System.out.println("Error closing resources: " + e.getMessage());
             }
+        }, timeoutMillis);
+    }
 
-            if (!requestPartsContainer.toString().endsWith(CRLF + CRLF)) {
-                requestPartsContainer.append(CRLF);
+    /**
+     * Answers a client whose request could not be read in time with "408 Request Timeout".
+     */
+    private void respondToExpiredTimeout() {
+        if (expiredTimeout != null) {
+            try {
+                socketDataWriter.write(HTTPResponse.encodeErrorResponse(408));
+            } catch (IOException e) {
+                System.out.println("Client connection has disconnected " + e.getMessage());
             }
-        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Handles a request whose header and entity body were already read from the client by a non-blocking engine.
+     * The response is appended to the response buffer of the context, which the engine then delivers to the client.
+     *
+     * @param framedRequest - the parsed request head and the entity body (empty if it has none), which is deleted
+     *                      once it was handled
+     * @param mayKeepAlive - false if the connection has to be closed after this response
+     * @return true if the engine should keep the connection open for the next request
+     */
+    public boolean handleBufferedRequest(RequestFramer.FramedRequest framedRequest, boolean mayKeepAlive) {
+        this.bufferedRequest = framedRequest;
+
+        try {
+            return respondToRequest(framedRequest.getRequestHead(), mayKeepAlive);
+        } catch (IOException e) {
             WebServer.notifyInternalServerError(response, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Builds the request from its parsed head and writes the matching response to the response buffer of the context.
+     *
+     * @param requestHead - the parsed request line and headers
+     * @param mayKeepAlive - false if the connection has to be closed after this response
+     * @return true if the connection should stay open for the next request
+     * @throws IOException if unable to process the request
+     */
+    private boolean respondToRequest(HTTPRequestParser requestHead, boolean mayKeepAlive) throws IOException {
+        this.isReadingRequest = false;
+        this.request = new HTTPRequest(requestHead, serverConfig, context.getRequestParams());
+        this.response = new HTTPResponse(request);
+        this.response.initialize(context);
+        this.response.setFlushDeferred(socketDataWriter != null);
+
+        try {
+            if (!request.isRequestValid()) {
+                request.setKeepAlive(false);
+                response.sendErrorResponse(requestHead.getErrorStatus());
+            } else if (getRejectionStatus() != 0) {
+                // The entity body is not read, so the connection cannot carry another request after it.
+                request.setKeepAlive(false);
+                response.sendErrorResponse(getRejectionStatus());
+            } else {
+                request.setKeepAlive(request.isKeepAlive() && mayKeepAlive);
+                processHttpRequest();
+            }
+        } finally {
+            request.getRequestBody().delete();
+
+            if (bufferedRequest != null) {
+                bufferedRequest.getEntityBody().delete();
+            }
         }
 
-        return requestPartsContainer.toString();
+        return request.isKeepAlive();
+    }
+
+    /**
+     * @return the error status to answer the request with before its entity body is read, or 0 if it may be handled
+     */
+    private int getRejectionStatus() {
+        if (bufferedRequest != null) {
+            return bufferedRequest.getRejectionStatus();
+        }
+
+        return RequestFramer.getRejectionStatus(request.getHeaders(), serverConfig.getMaxBodySize());
+    }
+
+    /**
+     * Reads the request line and headers of the next request from the socket, parsing them as the bytes arrive.
+     * The request line and headers have to arrive within the header read timeout. Bytes following the head stay in
+     * the read buffer for the entity body or the next pipelined request.
+     *
+     * @return the parsed request head (invalid if the client sent a malformed or too large one),
+     * or null if the client closed the connection or timed out
+     */
+    private HTTPRequestParser readIncomingDataFromSocket() {
+        HTTPRequestParser requestHead = context.nextRequestParser();
+        isReadingRequest = true;
+        ScheduledFuture<?> headerTimeout = armTimeout("header", serverConfig.getHeaderReadTimeout());
+
+        try {
+            while (true) {
+                int parsedUpTo = requestHead.parse(readBuffer, readPosition, readLimit);
+
+                if (requestHead.isComplete() || requestHead.isInvalid()) {
+                    readPosition = parsedUpTo;
+                    break;
+                }
+
+                // Line breaks in front of the head are dropped as they arrive, as the framer does, so that a client
+                // sending nothing else cannot fill the read buffer and make it grow.
+                if (!requestHead.hasStarted()) {
+                    readPosition = parsedUpTo;
+                    requestHead.reset();
+                }
+
+                if (readMore() < 0) {
+                    return null;
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Client connection has disconnected " + e.getMessage());
+            return null;
+        } finally {
+            headerTimeout.cancel(false);
+        }
+
+        return (expiredTimeout == null) ? requestHead : null;
+    }
+
+    /**
+     * Reads the next bytes from the socket behind the unconsumed ones. The unconsumed bytes are moved to the start
+     * of the read buffer first, and the buffer grows when they already fill it. A grown buffer is only used by this
+     * connection, the context keeps its buffer of the default size.
+     *
+     * @return the number of bytes read, or -1 if the client closed its side of the connection
+     * @throws IOException if unable to read from the socket
+     */
+    private int readMore() throws IOException {
+        if (readLimit == readBuffer.length) {
+            int unconsumed = readLimit - readPosition;
+
+            if (unconsumed == readBuffer.length) {
+                readBuffer = Arrays.copyOf(readBuffer, readBuffer.length * 2);
+            } else {
+                System.arraycopy(readBuffer, readPosition, readBuffer, 0, unconsumed);
+                readPosition = 0;
+                readLimit = unconsumed;
+            }
+        } else if (readPosition == readLimit) {
+            readPosition = 0;
+            readLimit = 0;
+        }
+
+        int bytesRead = socketInput.read(readBuffer, readLimit, readBuffer.length - readLimit);
+        if (bytesRead > 0) {
+            readLimit += bytesRead;
+        }
+
+        return bytesRead;
+    }
+
+    /**
+     * Sends the buffered responses to the client, unless the next pipelined request is already waiting in the
+     * reader buffer, in which case its response is written into the same socket write.
+     *
+     * @throws IOException if unable to write to the socket
+     */
+    private void flushIfNoPendingInput() throws IOException {
+        if (readPosition == readLimit && socketInput.available() == 0) {
+            socketDataWriter.flush();
+        }
     }
 
     /**
@@ -96,15 +409,21 @@ public class ClientHandler implements Runnable {
      */
     public void close() {
         try {
-            if (socketDataReader != null) {
-                socketDataReader.close();
+            if (socketDataWriter != null) {
+                socketDataWriter.flush();
             }
+        } catch (IOException e) {
+            System.out.println("Client connection has disconnected " + e.getMessage());
+        }
 
-            if (response != null) {
-                response.closeOutputStream();
+        try {
+            if (socketInput != null) {
+                socketInput.close();
             }
 
-            clientSocket.close();
+            if (clientSocket != null) {
+                clientSocket.close();
+            }
         } catch (IOException e) {
             System.out.println("Error closing resources: " + e.getMessage());
             WebServer.notifyInternalServerError(response, e.getMessage());
@@ -117,6 +436,10 @@ public class ClientHandler implements Runnable {
     public void processHttpRequest() {
         System.out.println("HTTP Request:\n" + request.getRequest());
         try {
+            if (!request.getMethodType().equals("POST") && !discardEntityBody()) {
+                return;
+            }
+
             switch (request.getMethodType()) {
                 case "GET":
                     handleGETRequest();
@@ -141,15 +464,49 @@ public class ClientHandler implements Runnable {
     /**
      * Handles a GET request.
      *
-     * @throws IOException if unable to reach the given path or connection with the socket is lost
+     * @throws IOException if unable to store the params, reach the given path or connection with the socket is lost
      */
     private void handleGETRequest() throws IOException {
+        if (ParamsQuery.isQueryPath(request.getRequestedPage(), serverConfig.getRoot())) {
+            answerParamsQuery(true);
+            return;
+        }
+
+        if (!request.storeRequestParams()) {
+            response.sendErrorResponse(507);
+            return;
+        }
         sendRequestedFileToClient();
     }
 
+    /**
+     * Answers a query of the stored params with a JSON page streamed to the client. The params of the query are
+     * not stored themselves.
+     *
+     * @param isContentSent - false to send the header only, for a HEAD request
+     * @throws IOException if the connection with the socket is lost while the page is sent
+     */
+    private void answerParamsQuery(boolean isContentSent) throws IOException {
+        ParamsQuery query = ParamsQuery.parse(request.getRequestParams());
+
+        if (query == null) {
+            response.sendErrorResponse(400);
+            return;
+        }
+
+        request.setContentType("application/json");
+        if (isContentSent) {
+            response.sendStreamedResponse(200, query::writeResults);
+        } else {
+            response.sendStreamedResponseHeader(200);
+        }
+    }
+
     /**
      * Reads the files written to the request's path and sends them back to the client if they exist and are within
-     * the root directory (listed in the config.ini file).
+     * the root directory (listed in the config.ini file). The params_info.html page is rendered from memory instead,
+     * smaller files are served from the static content cache, and files from fileTransferThreshold bytes on are
+     * streamed to the socket without being read into memory.
      * The method is mainly for the response of the GET and POST methods.
      *
      * @throws IOException if unable to read files or the socket connection is closed
@@ -157,44 +514,219 @@ public class ClientHandler implements Runnable {
     private void sendRequestedFileToClient() throws IOException {
         Path requestedPagePath = request.getRequestedPage();
 
-        if (Files.exists(requestedPagePath) && requestedPagePath.startsWith(serverConfig.getRoot())) {
-            byte[] content = Files.readAllBytes(requestedPagePath);
-            request.setRequestContent(content);
+        if (ParamsPage.isParamsPage(requestedPagePath)) {
+            request.setRequestContent(ParamsPage.render());
             response.sendHttpResponse(200);
+        } else if (sendCachedFile(requestedPagePath, true)) {
+            return;
+        } else if (Files.exists(requestedPagePath) && requestedPagePath.startsWith(serverConfig.getRoot())) {
+            if (isStreamedFile(requestedPagePath)) {
+                response.sendFileResponse(200, FileChannel.open(requestedPagePath, StandardOpenOption.READ));
+            } else {
+                byte[] content = Files.readAllBytes(requestedPagePath);
+                request.setRequestContent(content);
+                response.sendHttpResponse(200);
+            }
         } else {
             response.sendErrorResponse(404);
         }
     }
 
+    /**
+     * Sends a file from the static content cache, which reads it into the cache if it was not cached yet.
+     *
+     * @param filePath - the normalized path of a requested file, which is also the key of the cache, so a file has
+     * only one entry whatever way it was requested
+     * @param isContentSent - false to send the header only, for a HEAD request
+     * @return true if the file was sent, false if it is not within the root directory or cannot be cached
+     * @throws IOException if unable to read the file or the socket connection is closed
+     */
+    private boolean sendCachedFile(Path filePath, boolean isContentSent) throws IOException {
+        if (!filePath.startsWith(serverConfig.getRoot())) {
+            return false;
+        }
+
+        StaticContentCache.Entry entry = StaticContentCache.get(filePath, request.getContentType());
+        if (entry == null) {
+            return false;
+        }
+
+        response.sendCachedResponse(entry, isContentSent);
+        return true;
+    }
+
+    /**
+     * @param filePath - the path of a requested file
+     * @return true if the file is streamed from disk instead of being read into memory, which is the case for
+     * regular files of at least fileTransferThreshold bytes
+     * @throws IOException if unable to read the file attributes
+     */
+    private boolean isStreamedFile(Path filePath) throws IOException {
+        return Files.isRegularFile(filePath) && Files.size(filePath) >= serverConfig.getFileTransferThreshold();
+    }
+
     /**
      * Handles a POST request.
-     * It's extract the params from the entity body of the request and updates the request's params field.
+     * It extracts the params from the url-encoded or multipart/form-data entity body and updates the request's params field.
      * It also responds, according to the path given in the request.
+     * A url-encoded body too large to be kept in memory, which was spilled to a temporary file, is refused with 413.
      *
      * @throws IOException if unable to read or write from/to the socket
      */
     private void handlePOSTRequest() throws IOException {
-        String requestEntityBody = getEntityBody();
-        request.setRequestParams(requestEntityBody);
+        RequestBody entityBody = getEntityBody();
+        if (entityBody == null) {
+            return;
+        }
+
+        request.setRequestBody(entityBody);
+        String multipartBoundary = request.getMultipartBoundary();
+
+        // A shutdown may have started while the body was being read.
+        if (clientSocket != null && isDraining()) {
+            request.setKeepAlive(false);
+        }
+
+        if (multipartBoundary != null) {
+            if (!request.setMultipartRequestParams(multipartBoundary)) {
+                response.sendErrorResponse(400);
+                return;
+            }
+        } else if (entityBody.length() > serverConfig.getBodySpillThreshold()) {
+            // Url-encoded params are decoded in memory as a whole, the spill threshold bounds the body they come from,
+            // also on the non-blocking engines, which keep larger bodies in memory rather than spilling them.
+            response.sendErrorResponse(413);
+            return;
+        } else {
+            // The pairs are URL decoded one by one, so encoded '&' and '=' characters stay inside their values.
+            request.setRequestParams(request.getRequestBody().asString());
+        }
+        if (!request.storeRequestParams()) {
+            response.sendErrorResponse(507);
+            return;
+        }
         sendRequestedFileToClient();
     }
 
     /**
-     * Extracts the entity body of a POST request.
+     * Reads and drops the entity body of a request other than POST, which the server has no use for, so that its
+     * bytes are not taken for the next request on the connection. A framed request had its body read already.
+     *
+     * @return true if the request may be answered, false if it was answered with an error instead
+     * @throws IOException if unable to read from the socket or to write the temporary file
+     */
+    private boolean discardEntityBody() throws IOException {
+        if (bufferedRequest != null || RequestFramer.getBodyLength(request.getHeaders()) == 0) {
+            return true;
+        }
+
+        RequestBody entityBody = getEntityBody();
+        if (entityBody == null) {
+            return false;
+        }
+
+        entityBody.delete();
+        return true;
+    }
+
+    /**
+     * Receives the entity body of a request, exactly Content-Length bytes of it, or its chunks up to the last one
+     * for a chunked body. A client that asked for it gets "100 Continue" before the body is read.
+     * Bodies above the spill threshold are written to a temporary file as they arrive instead of being kept in memory.
+     *
+     * @return the entity body of the request, or null if the request was answered with an error instead
+     * @throws IOException if unable to read from the socket or to write the temporary file
+     */
+    private RequestBody getEntityBody() throws IOException {
+        if (bufferedRequest != null) {
+            return bufferedRequest.getEntityBody();
+        }
+
+        long bodyLength = RequestFramer.getBodyLength(request.getHeaders());
+        ChunkedDecoder chunkedDecoder = null;
+        if (bodyLength == RequestFramer.CHUNKED) {
+            chunkedDecoder = new ChunkedDecoder(serverConfig.getMaxBodySize());
+            bodyLength = RequestBody.Receiver.UNKNOWN_LENGTH;
+        }
+
+        RequestBody.Receiver bodyReceiver = new RequestBody.Receiver(bodyLength, serverConfig.getBodySpillThreshold());
+        boolean isBodyReceived = false;
+
+        try {
+            // The beginning of the body may already be in the read buffer, behind the request head.
+            readPosition += receiveBodyBytes(bodyReceiver, chunkedDecoder);
+
+            if (socketDataWriter != null) {
+                if (readPosition == readLimit && RequestFramer.isContinueExpected(request.getHeaders(), request.getHttpVersion())) {
+                    socketDataWriter.write(HTTPResponse.encodeContinue());
+                    socketDataWriter.flush();
+                }
+                flushIfNoPendingInput();
+            }
+
+            isReadingRequest = true;
+            ScheduledFuture<?> bodyTimeout = armTimeout("body", serverConfig.getBodyReadTimeout());
+
+            try {
+                // The whole body has to be consumed, otherwise its tail would be read as the next request.
+                // Bytes read past its end belong to the next pipelined request and stay in the read buffer.
+                while (isBodyIncomplete(bodyReceiver, chunkedDecoder)) {
+                    if (readMore() < 0) {
+                        request.setKeepAlive(false);
+                        break;
+                    }
+                    readPosition += receiveBodyBytes(bodyReceiver, chunkedDecoder);
+                }
+            } finally {
+                bodyTimeout.cancel(false);
+                isReadingRequest = false;
+            }
+
+            if (expiredTimeout != null) {
+                request.setKeepAlive(false);
+                response.sendErrorResponse(408);
+                throw new SocketTimeoutException("Timed out reading the entity body");
+            }
+
+            if (chunkedDecoder != null && (chunkedDecoder.isInvalid() || chunkedDecoder.isTooLarge())) {
+                request.setKeepAlive(false);
+                response.sendErrorResponse(chunkedDecoder.isInvalid() ? 400 : 413);
+                return null;
+            }
+
+            isBodyReceived = true;
+            return bodyReceiver.finish();
+        } finally {
+            if (!isBodyReceived) {
+                bodyReceiver.abort();
+            }
+        }
+    }
+
+    /**
+     * Passes the unconsumed bytes of the read buffer to the entity body being received.
      *
-     * @return the entity body of the request as a String
-     * @throws IOException if unable to read from the socket's buffer
+     * @param bodyReceiver - the receiver of the body
+     * @param chunkedDecoder - the decoder of a chunked body, null if the body has a Content-Length
+     * @return the number of bytes that belonged to the body
+     * @throws IOException if unable to write the temporary file
      */
-    private String getEntityBody()throws IOException {
-        String entityBodyFromRequest = "";
+    private int receiveBodyBytes(RequestBody.Receiver bodyReceiver, ChunkedDecoder chunkedDecoder) throws IOException {
+        int count = readLimit - readPosition;
+
+        if (chunkedDecoder != null) {
+            return chunkedDecoder.decode(readBuffer, readPosition, count, bodyReceiver);
+        }
 
-        if(request.getMethodType().equalsIgnoreCase("post")){
-            char[] entityBodyInfo = new char[request.getContentLength()];
-            int numOfCharsReadFromReader = socketDataReader.read(entityBodyInfo);
-            entityBodyFromRequest = (numOfCharsReadFromReader > -1) ? new String(entityBodyInfo): entityBodyFromRequest;
+        return bodyReceiver.write(readBuffer, readPosition, count);
+    }
+
+    private static boolean isBodyIncomplete(RequestBody.Receiver bodyReceiver, ChunkedDecoder chunkedDecoder) {
+        if (chunkedDecoder != null) {
+            return !chunkedDecoder.isComplete() && !chunkedDecoder.isInvalid() && !chunkedDecoder.isTooLarge();
         }
 
-        return URLDecoder.decode(entityBodyFromRequest, StandardCharsets.UTF_8);
+        return bodyReceiver.remaining() > 0;
     }
 
     /**
@@ -205,9 +737,16 @@ public class ClientHandler implements Runnable {
     private void handleHEADRequest() throws IOException {
         Path requestedPagePath = request.getRequestedPage();
 
-        if (Files.exists(requestedPagePath) && requestedPagePath.startsWith(serverConfig.getRoot())) {
+        if (ParamsQuery.isQueryPath(requestedPagePath, serverConfig.getRoot())) {
+            answerParamsQuery(false);
+        } else if (ParamsPage.isParamsPage(requestedPagePath)) {
+            request.setContentLength(ParamsPage.render().length);
+            response.sendHttpResponse(200);
+        } else if (sendCachedFile(requestedPagePath, false)) {
+            return;
+        } else if (Files.exists(requestedPagePath) && requestedPagePath.startsWith(serverConfig.getRoot())) {
+            request.setContentLength(Files.size(requestedPagePath));
             response.sendHttpResponse(200);
-            request.setContentLength((int) Files.size(requestedPagePath));
         } else {
             response.sendErrorResponse(404);
         }
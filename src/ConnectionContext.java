@@ -0,0 +1,357 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The buffers and tables a connection reuses from one request to the next: the read buffer, the request head parser
+ * with its header table, the params map and the response buffer. HTTPRequest and HTTPResponse are thin views over
+ * them, so serving a request allocates little beyond the strings of its head and the response content.
+ * Contexts are handed from one connection to the next by a bounded Pool, so they are not allocated per connection
+ * either. A context is used by a single thread at a time.
+ */
+public class ConnectionContext {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int RESPONSE_BUFFER_SIZE = 16384;
+    // Buffers that grew beyond this for a large request are dropped instead of being kept in the pool.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1048576;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private final HTTPRequestParser requestParser;
+    private final HashMap<String, String> requestParams = new HashMap<>();
+    private ResponseBuffer responseBuffer = new ResponseBuffer();
+    private DataOutputStream responseStream = new DataOutputStream(responseBuffer);
+
+    /**
+     * @param serverConfig - the server configuration, for the request size limits
+     */
+    private ConnectionContext(ServerConfiguration serverConfig) {
+        this.requestParser = new HTTPRequestParser(serverConfig);
+    }
+
+    /**
+     * @return the buffer the received bytes are read into, its content is not cleared between connections
+     */
+    public byte[] getReadBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     * @return the request head parser, reset for the next request
+     */
+    public HTTPRequestParser nextRequestParser() {
+        requestParser.reset();
+        return requestParser;
+    }
+
+    /**
+     * @return the params map of the current request, HTTPRequest clears it when it takes it over
+     */
+    public HashMap<String, String> getRequestParams() {
+        return requestParams;
+    }
+
+    /**
+     * @return the buffer the responses are written to
+     */
+    public ResponseBuffer getResponseBuffer() {
+        return responseBuffer;
+    }
+
+    /**
+     * @return a DataOutputStream over the response buffer, for HTTPResponse
+     */
+    public DataOutputStream getResponseStream() {
+        return responseStream;
+    }
+
+    /**
+     * Clears the context before it goes back to the pool.
+     */
+    private void reset() {
+        requestParams.clear();
+        requestParser.reset();
+        responseBuffer.detach();
+
+        if (responseBuffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            responseBuffer = new ResponseBuffer();
+            responseStream = new DataOutputStream(responseBuffer);
+        }
+        responseBuffer.reset();
+    }
+
+    /**
+     * The response buffer of a context. Attached to the socket output of a blocking connection it works like a
+     * BufferedOutputStream whose target can change from one connection to the next. Detached, as used by the
+     * non-blocking engines, it collects the responses of a batch in memory and grows as needed.
+     * File content is not copied into the buffer as a whole: attached, it is transferred to the socket right away,
+     * or framed into chunks through the buffer, detached, the file region is recorded between the buffered bytes and
+     * handed to the engine with them. So the memory a file response takes does not depend on the size of the file.
+     */
+    public static class ResponseBuffer extends OutputStream {
+        private byte[] buffer = new byte[RESPONSE_BUFFER_SIZE];
+        private int count = 0;
+        private WriteTimeoutOutputStream target;
+        // The file regions recorded while detached, in the order they were written.
+        private final List<FileRegion> fileRegions = new ArrayList<>();
+
+        private ResponseBuffer() {
+        }
+
+        /**
+         * A region of a file recorded while detached, and the number of buffered bytes in front of it.
+         */
+        private static class FileRegion {
+            private final int bufferOffset;
+            private final FileChannel file;
+            private final long position;
+            private final long count;
+            private final boolean isChunked;
+
+            FileRegion(int bufferOffset, FileChannel file, long position, long count, boolean isChunked) {
+                this.bufferOffset = bufferOffset;
+                this.file = file;
+                this.position = position;
+                this.count = count;
+                this.isChunked = isChunked;
+            }
+        }
+
+        /**
+         * @param target - the socket output stream the buffered bytes are flushed to
+         */
+        public void attach(WriteTimeoutOutputStream target) {
+            this.target = target;
+        }
+
+        private void detach() {
+            target = null;
+        }
+
+        private int capacity() {
+            return buffer.length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureRoom(1);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (target != null && count + length > buffer.length) {
+                writeBufferedBytes();
+
+                // Like BufferedOutputStream, a write that does not fit into the empty buffer goes through directly.
+                if (length >= buffer.length) {
+                    target.write(bytes, offset, length);
+                    return;
+                }
+            }
+
+            ensureRoom(length);
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        /**
+         * Makes room for the given number of bytes, by writing the buffered bytes to the target if attached,
+         * and by growing the buffer otherwise.
+         *
+         * @param length - the number of bytes to make room for
+         * @throws IOException if unable to write to the target
+         */
+        private void ensureRoom(int length) throws IOException {
+            if (count + length <= buffer.length) {
+                return;
+            }
+
+            if (target != null) {
+                writeBufferedBytes();
+            } else {
+                buffer = Arrays.copyOf(buffer, Math.max(count + length, buffer.length * 2));
+            }
+        }
+
+        private void writeBufferedBytes() throws IOException {
+            target.write(buffer, 0, count);
+            count = 0;
+        }
+
+        /**
+         * Writes the buffered bytes to the target and flushes it. Does nothing while detached.
+         *
+         * @throws IOException if unable to write to the target
+         */
+        @Override
+        public void flush() throws IOException {
+            if (target != null) {
+                writeBufferedBytes();
+                target.flush();
+            }
+        }
+
+        /**
+         * Flushes the buffered bytes, the target itself is closed by its owner.
+         *
+         * @throws IOException if unable to write to the target
+         */
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * Writes a region of a file behind the bytes written so far. Attached, the buffered bytes are flushed and
+         * the region is transferred to the socket, or, framed into chunks, written through the buffer one chunk
+         * at a time. Detached, the region is recorded for the engine to send.
+         * Either way the response buffer takes the file over and closes it once it was sent.
+         *
+         * @param file - the file
+         * @param position - the position of the region in the file
+         * @param length - the length of the region
+         * @param isChunked - true to frame the region into chunks, without the last chunk
+         * @throws IOException if unable to write to the target or to read the file
+         */
+        public void writeFile(FileChannel file, long position, long length, boolean isChunked) throws IOException {
+            if (target == null) {
+                fileRegions.add(new FileRegion(count, file, position, length, isChunked));
+                return;
+            }
+
+            try (file) {
+                if (isChunked) {
+                    writeFileChunks(file, position, position + length);
+                } else {
+                    writeBufferedBytes();
+                    target.transferFrom(file, position, length);
+                }
+            }
+        }
+
+        private void writeFileChunks(FileChannel file, long position, long end) throws IOException {
+            byte[] chunk = new byte[(int) Math.min(OutgoingResponse.FILE_CHUNK_SIZE, end - position)];
+            ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+
+            while (position < end) {
+                chunkBuffer.clear().limit((int) Math.min(chunk.length, end - position));
+
+                while (chunkBuffer.hasRemaining()) {
+                    if (file.read(chunkBuffer, position + chunkBuffer.position()) < 0) {
+                        throw new IOException("File shrank while being sent");
+                    }
+                }
+
+                write(OutgoingResponse.encodeChunkHeader(chunkBuffer.limit()));
+                write(chunk, 0, chunkBuffer.limit());
+                write(CRLF);
+                position += chunkBuffer.limit();
+            }
+        }
+
+        /**
+         * @return a copy of the bytes collected while detached
+         */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, count);
+        }
+
+        /**
+         * Hands the responses collected while detached over to the engine: the bytes are copied into buffers from
+         * the BufferPool, and the recorded file regions, which the engine closes, are placed between them.
+         *
+         * @return the responses, ready to be written
+         */
+        public OutgoingResponse toOutgoingResponse() {
+            OutgoingResponse response = new OutgoingResponse();
+            int copiedBytes = 0;
+
+            for (FileRegion fileRegion : fileRegions) {
+                if (fileRegion.bufferOffset > copiedBytes) {
+                    response.addBytes(copyToPooledBuffer(copiedBytes, fileRegion.bufferOffset));
+                    copiedBytes = fileRegion.bufferOffset;
+                }
+                response.addFile(fileRegion.file, fileRegion.position, fileRegion.count, fileRegion.isChunked);
+            }
+            fileRegions.clear();
+
+            if (count > copiedBytes || response.isComplete()) {
+                response.addBytes(copyToPooledBuffer(copiedBytes, count));
+            }
+
+            return response;
+        }
+
+        private BufferPool.PooledBuffer copyToPooledBuffer(int from, int to) {
+            BufferPool.PooledBuffer pooledBuffer = BufferPool.acquire(to - from);
+            pooledBuffer.buffer().put(buffer, from, to - from).flip();
+            return pooledBuffer;
+        }
+
+        /**
+         * Drops the buffered bytes, and closes the files of the regions that were never handed over.
+         */
+        public void reset() {
+            count = 0;
+
+            for (FileRegion fileRegion : fileRegions) {
+                try {
+                    fileRegion.file.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing resources: " + e.getMessage());
+                }
+            }
+            fileRegions.clear();
+        }
+    }
+
+    /**
+     * A bounded pool of contexts. A context released while the pool is full is left to the garbage collector,
+     * and one is allocated when the pool is empty, so the pool never blocks.
+     */
+    public static class Pool {
+        private final ServerConfiguration serverConfig;
+        private final ArrayBlockingQueue<ConnectionContext> idleContexts;
+
+        /**
+         * @param serverConfig - the server configuration, maxThreads bounds the number of pooled contexts, as no
+         *                     more contexts than worker threads are in use at once
+         */
+        public Pool(ServerConfiguration serverConfig) {
+            this.serverConfig = serverConfig;
+            this.idleContexts = new ArrayBlockingQueue<>(serverConfig.getMaxThreads());
+        }
+
+        /**
+         * @return a pooled context, or a new one if the pool is empty
+         */
+        public ConnectionContext acquire() {
+            ConnectionContext context = idleContexts.poll();
+
+            if (context == null) {
+                ServerMetrics.increment("contexts.allocated");
+                context = new ConnectionContext(serverConfig);
+            }
+
+            return context;
+        }
+
+        /**
+         * Returns a context to the pool, it must not be used by its previous owner afterwards.
+         *
+         * @param context - the context to return
+         */
+        public void release(ConnectionContext context) {
+            context.reset();
+            idleContexts.offer(context);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The headers of a request, stored in parallel arrays of names, values and case-insensitive name hashes.
+ * Header names are case-insensitive, so "content-length" from a proxy finds the same header as "Content-Length".
+ * The headers the server itself needs are recognized once, when they are added, and their index is kept in a
+ * fixed slot, so looking them up costs an array access. Any other header is found by comparing the precomputed
+ * hashes first, without allocating anything per lookup.
+ * A repeated header is kept with all its values. Lookups return the first one, and the number of times a well-known
+ * header appeared is counted, so the framing headers can be checked for conflicting repetitions.
+ */
+public class HTTPHeaders {
+    public static final int HOST = 0;
+    public static final int CONNECTION = 1;
+    public static final int CONTENT_LENGTH = 2;
+    public static final int CONTENT_TYPE = 3;
+    public static final int TRANSFER_ENCODING = 4;
+    public static final int EXPECT = 5;
+    public static final int ACCEPT_ENCODING = 6;
+    public static final int IF_NONE_MATCH = 7;
+    public static final int IF_MODIFIED_SINCE = 8;
+    public static final int RANGE = 9;
+    public static final int USER_AGENT = 10;
+    public static final int REFERER = 11;
+
+    private static final String[] WELL_KNOWN_NAMES = {"Host", "Connection", "Content-Length", "Content-Type",
+            "Transfer-Encoding", "Expect", "Accept-Encoding", "If-None-Match", "If-Modified-Since", "Range",
+            "User-Agent", "Referer"};
+    private static final int[] WELL_KNOWN_HASHES = new int[WELL_KNOWN_NAMES.length];
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int count = 0;
+    private final int[] wellKnownIndexes = new int[WELL_KNOWN_NAMES.length];
+    private final int[] wellKnownCounts = new int[WELL_KNOWN_NAMES.length];
+
+    static {
+        for (int i = 0; i < WELL_KNOWN_NAMES.length; i++) {
+            WELL_KNOWN_HASHES[i] = hashOf(WELL_KNOWN_NAMES[i]);
+        }
+    }
+
+    /**
+     * Constructs an empty HTTPHeaders object.
+     */
+    public HTTPHeaders() {
+        Arrays.fill(wellKnownIndexes, -1);
+    }
+
+    /**
+     * Computes the case-insensitive hash of a header name, the same one as updateHash() computes byte by byte.
+     *
+     * @param headerName - the header name
+     * @return the hash of the lower case name
+     */
+    public static int hashOf(String headerName) {
+        int hash = 0;
+
+        for (int i = 0; i < headerName.length(); i++) {
+            hash = updateHash(hash, (byte) headerName.charAt(i));
+        }
+
+        return hash;
+    }
+
+    /**
+     * Adds the next byte of a header name to its case-insensitive hash, so the parser can hash names as it scans them.
+     *
+     * @param hash - the hash of the preceding bytes, 0 for the first one
+     * @param b - the next byte of the name
+     * @return the hash including the byte
+     */
+    public static int updateHash(int hash, byte b) {
+        return 31 * hash + ((b >= 'A' && b <= 'Z') ? b + ('a' - 'A') : b);
+    }
+
+    /**
+     * Adds a header. When a header appears more than once, lookups return its first value, getAll() returns all of them.
+     *
+     * @param name - the header name, as received
+     * @param nameHash - the case-insensitive hash of the name
+     * @param value - the header value, without surrounding whitespace
+     */
+    public void add(String name, int nameHash, String value) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+
+        names[count] = name;
+        values[count] = value;
+        hashes[count] = nameHash;
+
+        for (int i = 0; i < WELL_KNOWN_HASHES.length; i++) {
+            if (WELL_KNOWN_HASHES[i] == nameHash && WELL_KNOWN_NAMES[i].equalsIgnoreCase(name)) {
+                if (wellKnownIndexes[i] < 0) {
+                    wellKnownIndexes[i] = count;
+                }
+                wellKnownCounts[i]++;
+                break;
+            }
+        }
+
+        count++;
+    }
+
+    /**
+     * Removes all headers, keeping the arrays for the headers of the next request on the connection.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, count, null);
+        Arrays.fill(values, 0, count, null);
+        Arrays.fill(wellKnownIndexes, -1);
+        Arrays.fill(wellKnownCounts, 0);
+        count = 0;
+    }
+
+    /**
+     * Looks up one of the well-known headers.
+     *
+     * @param wellKnownHeader - one of the header constants of this class, e.g. HTTPHeaders.CONTENT_LENGTH
+     * @return the value of the header, or an empty string if the request has none
+     */
+    public String get(int wellKnownHeader) {
+        int index = wellKnownIndexes[wellKnownHeader];
+        return (index >= 0) ? values[index] : "";
+    }
+
+    /**
+     * Looks up any header by its case-insensitive name.
+     *
+     * @param headerName - the header name
+     * @return the value of the header, or an empty string if the request has none
+     */
+    public String get(String headerName) {
+        int nameHash = hashOf(headerName);
+
+        for (int i = 0; i < count; i++) {
+            if (hashes[i] == nameHash && names[i].equalsIgnoreCase(headerName)) {
+                return values[i];
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * @param wellKnownHeader - one of the header constants of this class
+     * @return true if the request has the header
+     */
+    public boolean contains(int wellKnownHeader) {
+        return wellKnownIndexes[wellKnownHeader] >= 0;
+    }
+
+    /**
+     * @param wellKnownHeader - one of the header constants of this class
+     * @return the number of times the request has the header, more than 1 if it is repeated
+     */
+    public int getCount(int wellKnownHeader) {
+        return wellKnownCounts[wellKnownHeader];
+    }
+
+    /**
+     * Looks up every value of a well-known header, for the headers whose repetitions matter.
+     *
+     * @param wellKnownHeader - one of the header constants of this class
+     * @return the values of the header in the order they were received, empty if the request has none
+     */
+    public List<String> getAll(int wellKnownHeader) {
+        List<String> allValues = new ArrayList<>(wellKnownCounts[wellKnownHeader]);
+        int nameHash = WELL_KNOWN_HASHES[wellKnownHeader];
+
+        for (int i = wellKnownIndexes[wellKnownHeader]; i >= 0 && i < count; i++) {
+            if (hashes[i] == nameHash && names[i].equalsIgnoreCase(WELL_KNOWN_NAMES[wellKnownHeader])) {
+                allValues.add(values[i]);
+            }
+        }
+
+        return allValues;
+    }
+
+    /**
+     * @return the number of headers, counting repeated ones
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param index - the index of the header, in the order they were received
+     * @return the header name, as received
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index - the index of the header, in the order they were received
+     * @return the header value
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+}
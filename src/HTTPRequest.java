@@ -5,40 +5,48 @@ import java.nio.file.Path;
 import java.util.HashMap;
 
 /**
- * An HTTP Request parser class.
- * Gets an HTTP request and extracts the header's values from it.
+ * An HTTP Request class.
+ * Gets a request head parsed by HTTPRequestParser and extracts the values the server needs from it.
  */
 public class HTTPRequest {
-    private static final String CRLF = "\r\n";
+    private final HTTPRequestParser parsedHead;
     private final String request;
     private final ServerConfiguration currentConfig;
-    private final HashMap<String, String> requestParams = new HashMap<>();
+    private final HashMap<String, String> requestParams;
 
     private Path requestedPage;
     private String methodType = "";
+    private String httpVersion = "";
     private String contentType = "";
     private String refererHeader = "";
     private String userAgent = "";
     private byte[] requestContent = new byte[]{};
-    private int contentLength = 0;
+    private RequestBody requestBody = RequestBody.empty();
+    private long contentLength = 0;
     private boolean isErrorOccurred = false;
     private boolean isRequestValid;
+    private boolean isKeepAlive = false;
 
     /**
-     * Constructs an HTTPRequest object with the given HTTP request string and server configuration.
+     * Constructs an HTTPRequest object with the given parsed request head and server configuration.
+     * The request is a view over its connection's context: the headers stay in the parser and the params are
+     * collected in the context's map, which is cleared first.
      *
-     * @param httpRequestString - the HTTP request string
-     * @param serverConfig      - the server configuration
-     * @throws IllegalArgumentException if the HTTP request string is null or empty
+     * @param parsedHead - the parser that parsed the request line and headers
+     * @param serverConfig - the server configuration
+     * @param requestParams - the params map of the connection's context
      */
-    public HTTPRequest(String httpRequestString, ServerConfiguration serverConfig) throws IOException {
-        isRequestValid = isValidHttpRequestFormat(httpRequestString);
-        request = httpRequestString;
+    public HTTPRequest(HTTPRequestParser parsedHead, ServerConfiguration serverConfig, HashMap<String, String> requestParams) {
+        this.parsedHead = parsedHead;
+        this.requestParams = requestParams;
+        requestParams.clear();
+        isRequestValid = parsedHead.isComplete();
+        request = parsedHead.getRequestHead();
         currentConfig = serverConfig;
         requestedPage = currentConfig.getRoot();
 
         if (isRequestValid) {
-            extractParamsAndInitParams(httpRequestString);
+            extractParamsAndInitParams();
         }
     }
 
@@ -58,15 +66,27 @@ public class HTTPRequest {
         return methodType;
     }
 
+    public String getHttpVersion() {
+        return httpVersion;
+    }
+
+    public boolean isKeepAlive() {
+        return isKeepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        isKeepAlive = keepAlive;
+    }
+
     public Path getRequestedPage() {
         return requestedPage;
     }
 
-    public int getContentLength() {
+    public long getContentLength() {
         return contentLength;
     }
 
-    public void setContentLength(int length) {
+    public void setContentLength(long length) {
         contentLength = length;
     }
 
@@ -80,6 +100,13 @@ public class HTTPRequest {
         }
     }
 
+    /**
+     * @return the headers of the request, with O(1) lookups for the well-known ones
+     */
+    public HTTPHeaders getHeaders() {
+        return parsedHead.getHeaders();
+    }
+
     public String getRefererHeader() {
         return refererHeader;
     }
@@ -92,10 +119,47 @@ public class HTTPRequest {
         return requestParams;
     }
 
-    public void setRequestParams(String paramsStr) throws IOException {
+    public void setRequestParams(String paramsStr) {
         extractQueryParamsFromStr(paramsStr);
     }
 
+    /**
+     * @return the boundary of a multipart/form-data entity body, or null if the body has another type
+     */
+    public String getMultipartBoundary() {
+        return MultipartParser.extractBoundary(getHeaders().get(HTTPHeaders.CONTENT_TYPE));
+    }
+
+    /**
+     * Extracts the params from a multipart/form-data entity body, streaming its file parts to the upload directory.
+     * The param of a file part holds the name of the stored file.
+     *
+     * @param boundary - the boundary of the body
+     * @return false if the body is malformed, or has more parts or longer part names than params are accepted
+     * @throws IOException if unable to read the body or store its files
+     */
+    public boolean setMultipartRequestParams(String boundary) throws IOException {
+        MultipartParser multipartParser = new MultipartParser(boundary, currentConfig);
+        boolean isParsed;
+
+        try (InputStream bodyStream = requestBody.openStream()) {
+            isParsed = multipartParser.parse(bodyStream, requestParams);
+        }
+
+        return isParsed;
+    }
+
+    /**
+     * Appends the params of the request to the ParamStore, which the params_info.html page is rendered from.
+     * Called once all the params of a GET or POST request are extracted, so they are stored as one record.
+     *
+     * @return true if the params were stored, false if they would add more param names than the store may hold
+     * @throws IOException if unable to store the params durably
+     */
+    public boolean storeRequestParams() throws IOException {
+        return ParamStore.append(requestParams);
+    }
+
     public boolean getErrorFlag() {
         return isErrorOccurred;
     }
@@ -104,6 +168,19 @@ public class HTTPRequest {
         this.isErrorOccurred = errorValue;
     }
 
+    /**
+     * @return the entity body of the request, empty until it was received
+     */
+    public RequestBody getRequestBody() {
+        return requestBody;
+    }
+
+    public void setRequestBody(RequestBody body) {
+        if (body != null) {
+            requestBody = body;
+        }
+    }
+
     public byte[] getRequestContent() {
         return requestContent;
     }
@@ -116,71 +193,42 @@ public class HTTPRequest {
     }
 
     /**
-     * Extracts all the header's values from a given HTTP request and initialize the class fields.
-     *
-     * @param httpRequest - the HTTP request string
-     * @throws IOException if unable to extract data and write it to file or if the request is invalid.
+     * Extracts all the values the server needs from the parsed request head and initialize the class fields.
      */
-    private void extractParamsAndInitParams(String httpRequest) throws IOException {
-        extractMethodTypeAndPath(httpRequest);
+    private void extractParamsAndInitParams() {
+        String requestTarget = parsedHead.getTarget();
+        int queryStart = requestTarget.indexOf('?');
+
+        methodType = parsedHead.getMethod();
+        httpVersion = parsedHead.getHttpVersion();
+        requestedPage = extractRequestedPage((queryStart < 0) ? requestTarget : requestTarget.substring(0, queryStart));
         contentType = getRequestedContentType(requestedPage);
-        refererHeader = getHeaderValue(httpRequest, "Referer");
-        userAgent = getHeaderValue(httpRequest, "User-Agent");
-        extractQueryParams(httpRequest);
-        contentLength = extractContentLengthOnPostRequest(httpRequest);
-    }
+        refererHeader = getHeaders().get(HTTPHeaders.REFERER);
+        userAgent = getHeaders().get(HTTPHeaders.USER_AGENT);
 
-    /**
-     * Extracts the Method-Type and the Path of a URL from a given HTTP request.
-     *
-     * @param HTTPRequest - the HTTP request string
-     */
-    private void extractMethodTypeAndPath(String HTTPRequest) {
-        String[] requestParts = HTTPRequest.split("\\s+");
-        methodType = extractMethodType(requestParts);
-        if (requestParts.length >= 2) {
-            requestedPage = extractRequestedPage(requestParts[1]);
+        if (queryStart >= 0) {
+            extractQueryParamsFromStr(requestTarget.substring(queryStart + 1));
         }
-    }
 
-    /**
-     * Extracts the HTTP method type from the request parts.
-     *
-     * @param requestParts - The parts of the HTTP request, split by whitespace.
-     * @return The HTTP method type if it exists, otherwise an empty string.
-     */
-    private String extractMethodType(String[] requestParts) {
-        return (requestParts.length > 0) ? requestParts[0] : "";
+        contentLength = extractContentLengthOnPostRequest();
+        isKeepAlive = isPersistentConnectionRequested();
     }
 
     /**
      * Extracts the requested page from the file path.
-     * If the file path is empty or "/", the default page is returned.
-     * If the file path starts with "/", the file path is resolved relative to the root directory.
+     * If the file path is "/", the default page is returned.
+     * Otherwise the file path is resolved relative to the root directory, and normalized, so that "." and ".."
+     * segments cannot lead out of the root directory unnoticed, and every spelling of a path names the same file.
      *
-     * @param filePath - The file path from the HTTP request.
-     * @return The path of the requested page.
+     * @param filePath - The path part of the request target, without the query.
+     * @return The normalized path of the requested page.
      */
     private Path extractRequestedPage(String filePath) {
-        if (filePath.isEmpty() || filePath.equals("/")) {
-            filePath = currentConfig.getDefaultPage();
-        } else if (filePath.startsWith("/")) {
-            filePath = extractFilePath(filePath);
+        if (filePath.equals("/")) {
+            return currentConfig.getRoot().resolve(currentConfig.getDefaultPage()).normalize();
         }
 
-        return currentConfig.getRoot().resolve(filePath);
-    }
-
-    /**
-     * Extracts the file path from the given file path string.
-     * The file path string is split by "?", and the first part is returned.
-     *
-     * @param filePath - The file path string from the HTTP request.
-     * @return The extracted file path.
-     */
-    private String extractFilePath(String filePath) {
-        String[] requestParts = filePath.split("\\?");
-        return requestParts[0].substring(1);
+        return currentConfig.getRoot().resolve(filePath.substring(1)).normalize();
     }
 
     /**
@@ -212,63 +260,28 @@ public class HTTPRequest {
         return contentType;
     }
 
-    /**
-     * Extract the headerName from the given HTTP request.
-     *
-     * @param HTTPRequest - the HTTP request string
-     * @param headerName  - the name of the header to extract
-     * @return the value of the specified header if found. otherwise, an empty string
-     */
-    private String getHeaderValue(String HTTPRequest, String headerName) {
-        String headerValue = "";
-        String [] parts;
-
-        if (HTTPRequest != null && !HTTPRequest.isEmpty()) {
-            String headerPrefix = headerName + ":";
-
-            parts = HTTPRequest.split(CRLF);
-
-            for (String line : parts) {
-                if (line.startsWith(headerPrefix)) {
-                    headerValue = line.substring(headerPrefix.length()).trim();
-                }
-            }
-        }
-
-        return headerValue;
-    }
-
-    /**
-     * Extracts query parameters from the URL of the HTTP request.
-     *
-     * @param HTTPRequest- the HTTP request string
-     * @throws IOException if unable to extract and write to file.
-     */
-    private void extractQueryParams(String HTTPRequest) throws IOException {
-        if (HTTPRequest != null && !HTTPRequest.isEmpty()) {
-            String[] queryParts = HTTPRequest.split("HTTP");
-            queryParts = queryParts[0].split("\\?");
-
-            if (queryParts.length >= 2) {
-                extractQueryParamsFromStr(queryParts[1]);
-            }
-        }
-    }
-
-
     /**
      * Extracts query parameters from the provided string of parameters.
+     * At most maxParamCount params are extracted, and params whose name is longer than maxParamKeyLength are
+     * ignored, so a request with a flood of params cannot keep the server busy hashing them.
      *
      * @param strParamsFromUrl - a string of parameters from a URL
      */
-    private void extractQueryParamsFromStr(String strParamsFromUrl) throws IOException {
+    private void extractQueryParamsFromStr(String strParamsFromUrl) {
         HashMap<String, String> queryParams = requestParams;
-        String[] pairs = strParamsFromUrl.split("&");
+        int maxParamCount = currentConfig.getMaxParamCount();
+        // Only the first maxParamCount pairs are split off, the rest of the string is left in one more element.
+        String[] pairs = strParamsFromUrl.split("&", maxParamCount + 1);
+
+        if (pairs.length > maxParamCount) {
+            System.out.println("Ignoring the params beyond the first " + maxParamCount);
+        }
 
-        for (String pair : pairs) {
+        for (int pairIndex = 0; pairIndex < Math.min(pairs.length, maxParamCount) && queryParams.size() < maxParamCount; pairIndex++) {
+            String pair = pairs[pairIndex];
             String[] keyValue = pair.split("=");
 
-            if (keyValue.length >=2){
+            if (keyValue.length >=2 && keyValue[0].length() <= currentConfig.getMaxParamKeyLength()){
             String key = URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8);
             String value = "";
 
@@ -289,140 +302,44 @@ public class HTTPRequest {
                 queryParams.put(key, value);
             }
         }
-
-        // Updates the params_info.html upon POST request.
-        if (methodType.equalsIgnoreCase("post") || methodType.equalsIgnoreCase("get")) {
-            buildParamsHtmlFile(queryParams);
-        }
     }
 
     /**
      * Extracts the Content-Length from an HTTP POST request.
      *
-     * @param httpRequest - the HTTP request string
-     * @return the content length header value
-     */
-    private int extractContentLengthOnPostRequest(String httpRequest) {
-        int contentLength = 0;
-        String strContentLength = "";
-
-        if (this.methodType.equalsIgnoreCase("post")) {
-            strContentLength = getHeaderValue(httpRequest, "Content-Length");
-
-            try {
-                contentLength = Integer.parseInt(strContentLength);
-            } catch (NumberFormatException e) {
-                System.out.println("No Entity Body in Post Request");
-            }
-        }
-
-        return contentLength;
-    }
-
-    /**
-     * Checks if chunked encoding is requested by the client.
-     *
-     * @return true if chunked encoding is requested, false otherwise
+     * @return the content length header value, 0 for a chunked body
      */
-    public boolean isChunkedEncoding() {
-        String chunkedHeader = getHeaderValue(request, "chunked");
-        return ("yes").equalsIgnoreCase(chunkedHeader);
+    private long extractContentLengthOnPostRequest() {
+        return methodType.equalsIgnoreCase("post") ? Math.max(0, RequestFramer.getBodyLength(getHeaders())) : 0;
     }
 
     /**
-     * Reads from an HTML file named params_info.html that is located in root directory listed in the Server Configuration
-     * Given a POST/ GET request the method reads the html page, locates its parameters table and updates it accordingly
-     * by writing a new table into the html file.
+     * Checks if the client wants to keep the connection open for further requests.
+     * An explicit Connection header wins, otherwise HTTP/1.1 connections are persistent and HTTP/1.0 ones are not.
      *
-     * @param paramsInfo - HashMap with all the key & value parameters.
-     * @ throws IOException if unable to write to html file.
+     * @return true if the connection should stay open after the response, false otherwise
      */
-    private void buildParamsHtmlFile(HashMap<String, String> paramsInfo) throws IOException {
-        String filePath = currentConfig.getRoot().resolve("params_info.html").toString();
-        StringBuilder htmlFileContent = readParamsInfoFile(filePath);
-        int tableTagIndex = htmlFileContent.indexOf("</table>");
-
-        htmlFileContent.insert(tableTagIndex, generateHtmlParamsTableCode(paramsInfo));
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            writer.write(htmlFileContent.toString());
-        }
-    }
+    private boolean isPersistentConnectionRequested() {
+        String connectionHeader = getHeaders().get(HTTPHeaders.CONNECTION);
 
-    /**
-     * Reads the content of a given file.
-     *
-     * @param paramsInfoFilePath - path to the file being read/
-     * @return String - the file content.
-     * @throws IOException if unable to read from file.
-     */
-    private StringBuilder readParamsInfoFile(String paramsInfoFilePath) throws IOException {
-        StringBuilder htmlContent = new StringBuilder();
-        String line = "";
-        boolean isTableRowsAreReadingFromFile = false;
-
-        try (BufferedReader fileReader = new BufferedReader(new FileReader(paramsInfoFilePath))) {
-            while ((line = fileReader.readLine()) != null) {
-                if (line.startsWith("<table>") || line.startsWith("</table>")) {
-                    isTableRowsAreReadingFromFile = !isTableRowsAreReadingFromFile;
-                    htmlContent.append(line).append('\n');
-                }
-
-                if (!line.startsWith("</table>") && !isTableRowsAreReadingFromFile) {
-                    htmlContent.append(line).append('\n');
-                }
-            }
+        if (connectionHeader.equalsIgnoreCase("close")) {
+            return false;
         }
 
-        return htmlContent;
-    }
-
-    /**
-     * Generate an html table with all the parameters from a hashmap.
-     *
-     * @param paramsInfo - HashMap that stores our key&Value parameters.
-     * @return String - html code of a table with all the values.
-     */
-    private String generateHtmlParamsTableCode(HashMap<String, String> paramsInfo) {
-        StringBuilder paramsBuilder = new StringBuilder(" <tr><th>Parameter Name</th><th>Parameter Value</th></tr>\n");
-
-        if (!paramsInfo.isEmpty()) {
-            for (HashMap.Entry<String, String> keyValPair : paramsInfo.entrySet()) {
-                paramsBuilder.append("<tr><td>").append(keyValPair.getKey()).append("</td><td>").append(keyValPair.getValue()).append("</td></tr>\n");
-            }
+        if (connectionHeader.equalsIgnoreCase("keep-alive")) {
+            return true;
         }
 
-        return paramsBuilder.toString();
+        return httpVersion.equals("HTTP/1.1");
     }
 
     /**
-     * Validates the format of the incoming HTTP request.
+     * Checks if chunked encoding is requested by the client.
      *
-     * @param requestString the HTTP request string
-     * @return true if the request format is valid, false otherwise
+     * @return true if chunked encoding is requested, false otherwise
      */
-    private boolean isValidHttpRequestFormat(String requestString) {
-        if (requestString.isEmpty()) {
-            return false;
-        }
-
-        if (!(requestString.contains("HTTP/"))) {
-            return false;
-        }
-
-        String[] requestParts = requestString.split("/");
-        if (requestParts.length < 3) {
-            return false;
-        }
-
-        if (!requestParts[0].endsWith(" ")) {
-            return false;
-        }
-
-        if (requestParts[0].startsWith(" ") || requestParts[0].equals("/")) {
-            return false;
-        }
-
-        return true;
+    public boolean isChunkedEncoding() {
+        String chunkedHeader = getHeaders().get("chunked");
+        return ("yes").equalsIgnoreCase(chunkedHeader);
     }
 }
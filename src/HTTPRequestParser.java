@@ -0,0 +1,384 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A single pass parser for the request line and headers of an HTTP request, working directly on the raw bytes
+ * received from the client. A small state machine looks at every byte once and only records where the method,
+ * target, version and every header name and value start and end, and hashes the header names on the way.
+ * Strings are created once the whole head was received, without regular expressions, splitting or
+ * intermediate copies.
+ * The parser is resumable: while the head is incomplete, parse() is called again once more bytes arrived.
+ * It is reusable too: reset() prepares it for the next request of the connection.
+ * The configured size limits are checked on every call, so a head that crosses one is rejected without waiting
+ * for the rest of it.
+ */
+public class HTTPRequestParser {
+    private static final int INITIAL_HEADER_CAPACITY = 16;
+    private static final byte[] HTTP_VERSION_PREFIX = {'H', 'T', 'T', 'P', '/'};
+
+    private static final int SKIPPING_LINE_BREAKS = 0;
+    private static final int IN_METHOD = 1;
+    private static final int BEFORE_TARGET = 2;
+    private static final int IN_TARGET = 3;
+    private static final int BEFORE_VERSION = 4;
+    private static final int IN_VERSION = 5;
+    private static final int AFTER_VERSION = 6;
+    private static final int REQUEST_LINE_CR = 7;
+    private static final int LINE_START = 8;
+    private static final int IN_HEADER_NAME = 9;
+    private static final int BEFORE_HEADER_VALUE = 10;
+    private static final int IN_HEADER_VALUE = 11;
+    private static final int HEADER_LINE_CR = 12;
+    private static final int FINAL_CR = 13;
+    private static final int COMPLETE = 14;
+    private static final int INVALID = 15;
+    private static final int URI_TOO_LONG = 16;
+    private static final int HEADERS_TOO_LARGE = 17;
+
+    private final int maxRequestLineLength;
+    private final int maxHeaderSize;
+    private final int maxHeaderCount;
+
+    private int state = SKIPPING_LINE_BREAKS;
+    // All offsets are relative to the start of the request in the caller's buffer.
+    private int scanned = 0;
+    private int headStart;
+    private int requestLineEnd = -1;
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    private int nameStart;
+    private int nameEnd;
+    private int nameHash;
+    private int valueStart;
+    private int valueEnd;
+    // Five ints per header: name start, name end, name hash, value start, value end.
+    private int[] headerOffsets = new int[INITIAL_HEADER_CAPACITY * 5];
+    private int headerCount = 0;
+
+    private String method = "";
+    private String target = "";
+    private String httpVersion = "";
+    private String requestHead = "";
+    private final HTTPHeaders headers = new HTTPHeaders();
+
+    /**
+     * Constructs a parser that enforces the request size limits of the given configuration.
+     *
+     * @param serverConfig - the server configuration
+     */
+    public HTTPRequestParser(ServerConfiguration serverConfig) {
+        this.maxRequestLineLength = serverConfig.getMaxRequestLineLength();
+        this.maxHeaderSize = serverConfig.getMaxHeaderSize();
+        this.maxHeaderCount = serverConfig.getMaxHeaderCount();
+    }
+
+    /**
+     * Prepares the parser for the next request of a connection. The header table and the offset array are kept,
+     * so parsing the next head does not allocate them again.
+     */
+    public void reset() {
+        state = SKIPPING_LINE_BREAKS;
+        scanned = 0;
+        requestLineEnd = -1;
+        headerCount = 0;
+        method = "";
+        target = "";
+        httpVersion = "";
+        requestHead = "";
+        headers.clear();
+    }
+
+    /**
+     * Parses the bytes of the request that were not parsed yet.
+     * Between calls the bytes already parsed must stay in the buffer, at the same distance from the request start.
+     *
+     * @param buffer - the buffer holding the request
+     * @param start - the index of the first byte of the request in the buffer
+     * @param end - the index after the last received byte
+     * @return the index after the last byte that belongs to the head, or end if the head is incomplete
+     */
+    public int parse(byte[] buffer, int start, int end) {
+        int index = start + scanned;
+
+        while (index < end && state < COMPLETE) {
+            advance(buffer[index], index - start, buffer, start);
+            index++;
+        }
+
+        scanned = index - start;
+        checkLimits();
+
+        if (state == COMPLETE) {
+            createStrings(buffer, start);
+        }
+
+        return index;
+    }
+
+    private void advance(byte b, int position, byte[] buffer, int start) {
+        if (requestLineEnd < 0 && state >= AFTER_VERSION && (b == '\r' || b == '\n')) {
+            requestLineEnd = position;
+        }
+
+        switch (state) {
+            case SKIPPING_LINE_BREAKS:
+                if (b != '\r' && b != '\n') {
+                    headStart = position;
+                    state = isTokenByte(b) ? IN_METHOD : INVALID;
+                }
+                break;
+            case IN_METHOD:
+                if (b == ' ') {
+                    methodEnd = position;
+                    state = BEFORE_TARGET;
+                } else if (!isTokenByte(b)) {
+                    state = INVALID;
+                }
+                break;
+            case BEFORE_TARGET:
+                if (b == '/') {
+                    targetStart = position;
+                    state = IN_TARGET;
+                } else if (b != ' ') {
+                    state = INVALID;
+                }
+                break;
+            case IN_TARGET:
+                if (b == ' ') {
+                    targetEnd = position;
+                    state = BEFORE_VERSION;
+                } else if (b == '\r' || b == '\n') {
+                    state = INVALID;
+                }
+                break;
+            case BEFORE_VERSION:
+                if (b == 'H') {
+                    versionStart = position;
+                    state = IN_VERSION;
+                } else if (b != ' ') {
+                    state = INVALID;
+                }
+                break;
+            case IN_VERSION:
+                if (b == ' ' || b == '\r' || b == '\n') {
+                    versionEnd = position;
+                    state = hasVersionPrefix(buffer, start) ? AFTER_VERSION : INVALID;
+
+                    if (state == AFTER_VERSION) {
+                        advance(b, position, buffer, start);
+                    }
+                }
+                break;
+            case AFTER_VERSION:
+                if (b == '\r') {
+                    state = REQUEST_LINE_CR;
+                } else if (b == '\n') {
+                    state = LINE_START;
+                } else if (b != ' ') {
+                    state = INVALID;
+                }
+                break;
+            case REQUEST_LINE_CR:
+            case HEADER_LINE_CR:
+                state = (b == '\n') ? LINE_START : INVALID;
+                break;
+            case LINE_START:
+                if (b == '\r') {
+                    state = FINAL_CR;
+                } else if (b == '\n') {
+                    state = COMPLETE;
+                } else if (isTokenByte(b)) {
+                    nameStart = position;
+                    nameHash = HTTPHeaders.updateHash(0, b);
+                    state = IN_HEADER_NAME;
+                } else {
+                    // Covers obsolete line folding, which RFC 7230 lets servers reject.
+                    state = INVALID;
+                }
+                break;
+            case IN_HEADER_NAME:
+                if (b == ':') {
+                    nameEnd = position;
+                    state = BEFORE_HEADER_VALUE;
+                } else if (isTokenByte(b)) {
+                    nameHash = HTTPHeaders.updateHash(nameHash, b);
+                } else {
+                    state = INVALID;
+                }
+                break;
+            case BEFORE_HEADER_VALUE:
+                if (b == '\r' || b == '\n') {
+                    valueStart = position;
+                    valueEnd = position;
+                    endHeaderLine(b);
+                } else if (b != ' ' && b != '\t') {
+                    valueStart = position;
+                    valueEnd = position + 1;
+                    state = IN_HEADER_VALUE;
+                }
+                break;
+            case IN_HEADER_VALUE:
+                if (b == '\r' || b == '\n') {
+                    endHeaderLine(b);
+                } else if (b != ' ' && b != '\t') {
+                    valueEnd = position + 1;
+                }
+                break;
+            case FINAL_CR:
+                state = (b == '\n') ? COMPLETE : INVALID;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Rejects the head once its request line or its headers grow beyond the configured limits.
+     */
+    private void checkLimits() {
+        if (state == INVALID || !hasStarted()) {
+            return;
+        }
+
+        int requestLineLength = ((requestLineEnd < 0) ? scanned : requestLineEnd) - headStart;
+
+        if (requestLineLength > maxRequestLineLength) {
+            state = URI_TOO_LONG;
+        } else if (scanned - headStart > maxHeaderSize || headerCount > maxHeaderCount) {
+            state = HEADERS_TOO_LARGE;
+        }
+    }
+
+    /**
+     * Records the header whose line ends with the given line break byte.
+     *
+     * @param lineBreak - '\r' or '\n'
+     */
+    private void endHeaderLine(byte lineBreak) {
+        if (headerCount * 5 == headerOffsets.length) {
+            headerOffsets = Arrays.copyOf(headerOffsets, headerOffsets.length * 2);
+        }
+
+        int offset = headerCount * 5;
+        headerOffsets[offset] = nameStart;
+        headerOffsets[offset + 1] = nameEnd;
+        headerOffsets[offset + 2] = nameHash;
+        headerOffsets[offset + 3] = valueStart;
+        headerOffsets[offset + 4] = valueEnd;
+        headerCount++;
+
+        state = (lineBreak == '\r') ? HEADER_LINE_CR : LINE_START;
+    }
+
+    private boolean hasVersionPrefix(byte[] buffer, int start) {
+        if (versionEnd - versionStart <= HTTP_VERSION_PREFIX.length) {
+            return false;
+        }
+
+        for (int i = 0; i < HTTP_VERSION_PREFIX.length; i++) {
+            if (buffer[start + versionStart + i] != HTTP_VERSION_PREFIX[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param b - a byte of the request
+     * @return true if the byte may appear in a method or header name (a "tchar" of RFC 7230)
+     */
+    private static boolean isTokenByte(byte b) {
+        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')) {
+            return true;
+        }
+
+        return b == '-' || b == '_' || b == '.' || b == '!' || b == '#' || b == '$' || b == '%' || b == '&'
+                || b == '\'' || b == '*' || b == '+' || b == '^' || b == '`' || b == '|' || b == '~';
+    }
+
+    private void createStrings(byte[] buffer, int start) {
+        method = new String(buffer, start + headStart, methodEnd - headStart, StandardCharsets.US_ASCII);
+        target = new String(buffer, start + targetStart, targetEnd - targetStart, StandardCharsets.UTF_8);
+        httpVersion = new String(buffer, start + versionStart, versionEnd - versionStart, StandardCharsets.US_ASCII);
+        requestHead = new String(buffer, start + headStart, scanned - headStart, StandardCharsets.UTF_8);
+
+        for (int i = 0; i < headerCount; i++) {
+            int offset = i * 5;
+            String name = new String(buffer, start + headerOffsets[offset],
+                    headerOffsets[offset + 1] - headerOffsets[offset], StandardCharsets.US_ASCII);
+            String value = new String(buffer, start + headerOffsets[offset + 3],
+                    headerOffsets[offset + 4] - headerOffsets[offset + 3], StandardCharsets.UTF_8);
+            headers.add(name, headerOffsets[offset + 2], value);
+        }
+    }
+
+    /**
+     * @return true once the whole head was received and parsed
+     */
+    public boolean isComplete() {
+        return state == COMPLETE;
+    }
+
+    /**
+     * @return true if the head is malformed or too large, in which case the rest of it is not parsed
+     */
+    public boolean isInvalid() {
+        return state >= INVALID;
+    }
+
+    /**
+     * @return the status to reject an invalid head with: 414 for a request line above the limit, 431 for headers
+     * above the limits, and 400 for a malformed head
+     */
+    public int getErrorStatus() {
+        if (state == URI_TOO_LONG) {
+            return 414;
+        }
+
+        return (state == HEADERS_TOO_LARGE) ? 431 : 400;
+    }
+
+    /**
+     * @return true once a byte other than the line breaks some clients send between requests was parsed
+     */
+    public boolean hasStarted() {
+        return state != SKIPPING_LINE_BREAKS;
+    }
+
+    /**
+     * @return the number of bytes of the head, including the line breaks in front of it and the final empty line
+     */
+    public int getHeadLength() {
+        return scanned;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getHttpVersion() {
+        return httpVersion;
+    }
+
+    /**
+     * @return the request line and headers as received, terminated by the empty line
+     */
+    public String getRequestHead() {
+        return requestHead;
+    }
+
+    /**
+     * @return the headers of the request, empty until the head is complete
+     */
+    public HTTPHeaders getHeaders() {
+        return headers;
+    }
+}
@@ -1,6 +1,8 @@
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -10,8 +12,25 @@ import java.util.Map;
 public class HTTPResponse {
     private static final Map<Integer, String> statusMessages = new HashMap<>();
     private final HTTPRequest request;
-    private final String CRLF = "\r\n";
+    private static final String CRLF = "\r\n";
     private DataOutputStream outputStream;
+    private ConnectionContext.ResponseBuffer responseBuffer;
+    private boolean isFlushDeferred = false;
+
+    /**
+     * Produces the content of a streamed response while it is being sent.
+     */
+    public interface ContentWriter {
+        /**
+         * @param content - the stream to write the content to, every write becomes a chunk, so writes should be buffered
+         * @throws IOException if unable to write the content
+         */
+        void writeTo(OutputStream content) throws IOException;
+    }
+
+    static {
+        initializeStatusMessages();
+    }
 
     /**
      * Constructor for the HTTPResponse class.
@@ -23,24 +42,100 @@ public class HTTPResponse {
     }
 
     /**
-     * Initializes the output stream for sending responses.
+     * Initializes the output stream for sending responses with the response stream of the connection's context,
+     * so a connection reuses it for every response. File content goes to the context's response buffer directly.
      *
-     * @param outputStream - the output stream to be initialized
+     * @param context - the context of the connection
      */
-    public void initialize(OutputStream outputStream) {
-        this.outputStream = new DataOutputStream(outputStream);
-        initializeStatusMessages();
+    public void initialize(ConnectionContext context) {
+        this.outputStream = context.getResponseStream();
+        this.responseBuffer = context.getResponseBuffer();
+    }
+
+    /**
+     * Lets the owner of the output stream decide when to flush it, so the responses to pipelined requests
+     * can be coalesced into as few socket writes as possible.
+     *
+     * @param flushDeferred - true if sendHttpResponse() should leave flushing to the caller
+     */
+    public void setFlushDeferred(boolean flushDeferred) {
+        isFlushDeferred = flushDeferred;
     }
 
     /**
      * Initializes the status message map with the supported HTTP status codes and their corresponding messages.
+     * The map is filled once, when the class is loaded, so that concurrent responses only ever read it.
      */
-    void initializeStatusMessages() {
+    private static void initializeStatusMessages() {
+        statusMessages.put(100, "Continue");
         statusMessages.put(200, "OK");
+        statusMessages.put(202, "Accepted");
         statusMessages.put(400, "Bad Request");
         statusMessages.put(404, "Not Found");
+        statusMessages.put(408, "Request Timeout");
+        statusMessages.put(413, "Payload Too Large");
+        statusMessages.put(414, "URI Too Long");
+        statusMessages.put(417, "Expectation Failed");
+        statusMessages.put(431, "Request Header Fields Too Large");
         statusMessages.put(500, "Internal Server Error");
         statusMessages.put(501, "Not Implemented");
+        statusMessages.put(503, "Service Unavailable");
+        statusMessages.put(507, "Insufficient Storage");
+    }
+
+    /**
+     * Encodes a complete "503 Service Unavailable" response that closes the connection.
+     * The engines encode it once and write it as is to the clients they reject under overload,
+     * without reading or parsing their requests.
+     *
+     * @param retryAfterSeconds - the value of the Retry-After header
+     * @return the response bytes
+     */
+    public static byte[] encodeServiceUnavailable(int retryAfterSeconds) {
+        return encodeClosingResponse(503, "Retry-After: " + retryAfterSeconds + CRLF);
+    }
+
+    /**
+     * Encodes a complete error response that closes the connection, for the cases where the engine has to answer
+     * a client whose request could not be (fully) read, and therefore has no HTTPRequest to respond to.
+     *
+     * @param statusCode - the HTTP status code
+     * @return the response bytes
+     */
+    public static byte[] encodeErrorResponse(int statusCode) {
+        return encodeClosingResponse(statusCode, "");
+    }
+
+    /**
+     * Encodes a complete "202 Accepted" response that closes the connection, used to acknowledge an admin command
+     * that is carried out after the response was sent.
+     *
+     * @return the response bytes
+     */
+    public static byte[] encodeAccepted() {
+        return encodeClosingResponse(202, "");
+    }
+
+    /**
+     * Encodes the "100 Continue" interim response, which tells a client that sent "Expect: 100-continue"
+     * to go on with the entity body.
+     *
+     * @return the response bytes
+     */
+    public static byte[] encodeContinue() {
+        return ("HTTP/1.1 100 " + statusMessages.get(100) + CRLF + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] encodeClosingResponse(int statusCode, String extraHeaders) {
+        String content = statusCode + " " + statusMessages.get(statusCode);
+        String response = "HTTP/1.1 " + content + CRLF
+                + extraHeaders
+                + "Content-Length: " + content.length() + CRLF
+                + "Content-Type: text/plain" + CRLF
+                + "Connection: close" + CRLF + CRLF
+                + content;
+
+        return response.getBytes(StandardCharsets.US_ASCII);
     }
 
     /**
@@ -51,15 +146,17 @@ public class HTTPResponse {
      */
     void sendHttpResponse(int statusCode) throws IOException {
         try {
-            String responseHeader = generateHTTPResponseHeader(statusCode);
-            outputStream.writeBytes(responseHeader);
+            String responseHeader = generateHTTPResponseHeader(statusCode, request.isChunkedEncoding());
+            writeAscii(responseHeader);
 
             if (request.isChunkedEncoding()) {
                 sendResponseInChunks();
             } else {
                 sendResponseInSingleChunk();
             }
-            outputStream.flush();
+            if (!isFlushDeferred) {
+                outputStream.flush();
+            }
             printHttpResponseHeaders(responseHeader);
 
         } catch (Exception e) {
@@ -70,6 +167,155 @@ public class HTTPResponse {
         }
     }
 
+    /**
+     * Sends a response whose content is produced while it is sent, with chunked transfer encoding, so its length
+     * does not have to be known up front and it is never held in memory as a whole.
+     * Once the header is sent an error can no longer be answered with a status code, so an exception of the writer
+     * leaves the response incomplete, and the connection has to be closed.
+     *
+     * @param statusCode - the HTTP status code
+     * @param contentWriter - the producer of the content, of the request's content type
+     * @throws IOException if an I/O error occurs while sending the response
+     */
+    void sendStreamedResponse(int statusCode, ContentWriter contentWriter) throws IOException {
+        String responseHeader = generateHTTPResponseHeader(statusCode, true);
+        writeAscii(responseHeader);
+
+        try {
+            contentWriter.writeTo(new ChunkedContentStream());
+            writeAscii("0" + CRLF + CRLF);
+            if (!isFlushDeferred) {
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            abandonResponse();
+            throw e;
+        }
+        printHttpResponseHeaders(responseHeader);
+    }
+
+    /**
+     * Sends the header a streamed response would have, without its content, for a HEAD request.
+     *
+     * @param statusCode - the HTTP status code
+     * @throws IOException if an I/O error occurs while sending the response
+     */
+    void sendStreamedResponseHeader(int statusCode) throws IOException {
+        String responseHeader = generateHTTPResponseHeader(statusCode, true);
+        writeAscii(responseHeader);
+
+        if (!isFlushDeferred) {
+            outputStream.flush();
+        }
+        printHttpResponseHeaders(responseHeader);
+    }
+
+    /**
+     * Sends a file as the response content. The file is not read into memory: the response buffer transfers it to
+     * the socket, or hands it to the non-blocking engine, which does, so a response takes the same memory whatever
+     * the size of the file. With chunked encoding requested, the file is framed into chunks on the way.
+     * Like for a streamed response, an error while the file is sent leaves the response incomplete.
+     *
+     * @param statusCode - the HTTP status code
+     * @param file - the file to send, of the request's content type, it is closed once it was sent
+     * @throws IOException if an I/O error occurs while sending the response
+     */
+    void sendFileResponse(int statusCode, FileChannel file) throws IOException {
+        String responseHeader;
+
+        try {
+            request.setContentLength(file.size());
+            responseHeader = generateHTTPResponseHeader(statusCode, request.isChunkedEncoding());
+            writeAscii(responseHeader);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        try {
+            responseBuffer.writeFile(file, 0, request.getContentLength(), request.isChunkedEncoding());
+            if (request.isChunkedEncoding()) {
+                writeAscii("0" + CRLF + CRLF);
+            }
+            if (!isFlushDeferred) {
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            abandonResponse();
+            throw e;
+        }
+        printHttpResponseHeaders(responseHeader);
+    }
+
+    /**
+     * Sends a file from the static content cache, with its pre-encoded header. A chunked response is framed like any
+     * other in-memory content.
+     *
+     * @param entry - the cached file
+     * @param isContentSent - false to send the header only, for a HEAD request
+     * @throws IOException if an I/O error occurs while sending the response
+     */
+    void sendCachedResponse(StaticContentCache.Entry entry, boolean isContentSent) throws IOException {
+        request.setContentLength(entry.getLength());
+
+        if (request.isChunkedEncoding()) {
+            if (isContentSent) {
+                request.setRequestContent(entry.getContent());
+            }
+            sendHttpResponse(200);
+            return;
+        }
+
+        try {
+            String connectionHeader = generateConnectionHeader();
+            outputStream.write(entry.getEncodedResponseHeader());
+            writeAscii(connectionHeader);
+
+            if (isContentSent) {
+                outputStream.write(entry.getContent());
+            }
+            if (!isFlushDeferred) {
+                outputStream.flush();
+            }
+            printHttpResponseHeaders(entry.getResponseHeader() + connectionHeader);
+
+        } catch (Exception e) {
+            if (!request.getErrorFlag()) {
+                request.setErrorFlag(true);
+                sendErrorResponse(500);
+            }
+        }
+    }
+
+    /**
+     * Marks a response that failed after its header was sent: it cannot be answered with an error status anymore,
+     * and the connection has to be closed, as the client cannot tell where the response ends.
+     */
+    private void abandonResponse() {
+        request.setErrorFlag(true);
+        request.setKeepAlive(false);
+    }
+
+    /**
+     * The content stream of a streamed response, every write becomes a chunk.
+     */
+    private class ChunkedContentStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            // An empty chunk would end the content.
+            if (length > 0) {
+                writeAscii(Integer.toHexString(length) + CRLF);
+                outputStream.write(bytes, offset, length);
+                writeAscii(CRLF);
+            }
+        }
+    }
+
     /**
      * Sends the response in chunks if chunked encoding is requested by the client.
      *
@@ -81,11 +327,29 @@ public class HTTPResponse {
 
         for (int i = 0; i < responseData.length; i += chunkSize) {
             int length = Math.min(chunkSize, responseData.length - i);
-            outputStream.writeBytes(Integer.toHexString(length) + CRLF);
+            writeAscii(Integer.toHexString(length) + CRLF);
             outputStream.write(responseData, i, length);
-            outputStream.writeBytes(CRLF);
+            writeAscii(CRLF);
         }
-        outputStream.writeBytes("0" + CRLF + CRLF);
+        writeAscii("0" + CRLF + CRLF);
+    }
+
+    /**
+     * Writes header text with a single write, where DataOutputStream.writeBytes() would write it byte by byte.
+     *
+     * @param text - ASCII text
+     * @throws IOException if an I/O error occurs while writing
+     */
+    private void writeAscii(String text) throws IOException {
+        outputStream.write(encodeAscii(text));
+    }
+
+    /**
+     * @param text - ASCII text, e.g. a response header
+     * @return the encoded text
+     */
+    static byte[] encodeAscii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
     }
 
     /**
@@ -127,21 +391,43 @@ public class HTTPResponse {
      * The method differentiates between a response to a TRACE request and the other requests.
      *
      * @param statusCode - status code to reply to a client
+     * @param isChunked - true if the content is sent with chunked transfer encoding
      * @return a response as a String.
      */
-    private String generateHTTPResponseHeader(int statusCode) {
-        String statusMessage = statusMessages.get(statusCode);
-        String response = "HTTP/1.1 " + statusCode + " " + statusMessage + CRLF;
+    private String generateHTTPResponseHeader(int statusCode, boolean isChunked) {
+        String response;
 
-        if (request.isChunkedEncoding()) {
-            response += "Transfer-Encoding: chunked" + CRLF;
+        if (isChunked) {
+            response = "HTTP/1.1 " + statusCode + " " + statusMessages.get(statusCode) + CRLF
+                    + "Transfer-Encoding: chunked" + CRLF
+                    + "Content-Type: " + request.getContentType() + CRLF;
         } else {
-            response += "Content-Length: " + request.getContentLength() + CRLF;
+            response = generateContentHeader(statusCode, request.getContentLength(), request.getContentType());
         }
 
-        response += "Content-Type: " + this.request.getContentType() + CRLF;
+        return response + generateConnectionHeader();
+    }
+
+    /**
+     * Generates the part of a response header that only depends on the content, so it can be encoded once for
+     * content that is sent again and again, like the files of the static content cache.
+     *
+     * @param statusCode - status code to reply to a client
+     * @param contentLength - the length of the content
+     * @param contentType - the content type
+     * @return the status line and the Content-Length and Content-Type headers
+     */
+    static String generateContentHeader(int statusCode, long contentLength, String contentType) {
+        return "HTTP/1.1 " + statusCode + " " + statusMessages.get(statusCode) + CRLF
+                + "Content-Length: " + contentLength + CRLF
+                + "Content-Type: " + contentType + CRLF;
+    }
 
-        return response + CRLF;
+    /**
+     * @return the Connection header that ends the response header
+     */
+    private String generateConnectionHeader() {
+        return "Connection: " + (request.isKeepAlive() ? "keep-alive" : "close") + CRLF + CRLF;
     }
 
 
@@ -0,0 +1,387 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A streaming parser for multipart/form-data entity bodies (RFC 7578).
+ * The body is scanned for the boundary delimiter through a fixed-size buffer, and the content of every part is
+ * handed on as soon as it is known not to be part of a delimiter: file parts are written straight to the upload
+ * directory through a FileChannel, text fields are collected up to a small limit. So the memory used by an upload
+ * does not depend on the size of its files.
+ */
+public class MultipartParser {
+    private static final int BUFFER_SIZE = 16384;
+    private static final int MAX_PART_HEADER_LINE_LENGTH = 8192;
+    private static final int MAX_TEXT_FIELD_LENGTH = 65536;
+    private static final int MAX_BOUNDARY_LENGTH = 70;
+
+    private final byte[] delimiter;
+    private final Path uploadDirectory;
+    private final int maxParts;
+    private final int maxNameLength;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final List<Path> storedFiles = new ArrayList<>();
+    private InputStream input;
+    private int position = 0;
+    private int limit = 0;
+    private int partCount = 0;
+
+    /**
+     * A destination for the content of a part.
+     */
+    private interface PartSink {
+        void write(byte[] bytes, int offset, int count) throws IOException;
+    }
+
+    /**
+     * @param boundary - the boundary parameter of the Content-Type header
+     * @param serverConfig - the server configuration, for the upload directory and the param limits
+     */
+    public MultipartParser(String boundary, ServerConfiguration serverConfig) {
+        // Every boundary but the first is preceded by a line break, which belongs to the delimiter.
+        delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.uploadDirectory = serverConfig.getUploadDirectory();
+        this.maxParts = serverConfig.getMaxParamCount();
+        this.maxNameLength = serverConfig.getMaxParamKeyLength();
+    }
+
+    /**
+     * Extracts the boundary from the Content-Type header of a multipart/form-data request.
+     *
+     * @param contentTypeHeader - the value of the Content-Type header
+     * @return the boundary, or null if the body is not multipart/form-data or the boundary is missing or invalid
+     */
+    public static String extractBoundary(String contentTypeHeader) {
+        String[] typeParts = contentTypeHeader.split(";");
+
+        if (!typeParts[0].trim().equalsIgnoreCase("multipart/form-data")) {
+            return null;
+        }
+
+        for (int i = 1; i < typeParts.length; i++) {
+            String parameter = typeParts[i].trim();
+
+            if (parameter.regionMatches(true, 0, "boundary=", 0, 9)) {
+                String boundary = unquote(parameter.substring(9));
+                return (!boundary.isEmpty() && boundary.length() <= MAX_BOUNDARY_LENGTH) ? boundary : null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Parses the body, adding its text fields to the given params, and its file parts too, with the name of
+     * the stored file as their value. If the body is malformed, the files stored so far are deleted again.
+     *
+     * @param bodyStream - the entity body
+     * @param params - the request params to add the fields to
+     * @return true if the body was parsed up to its final boundary, false if it is malformed or exceeds the param limits
+     * @throws IOException if unable to read the body or to write a file part
+     */
+    public boolean parse(InputStream bodyStream, Map<String, String> params) throws IOException {
+        input = bodyStream;
+        boolean isParsed = false;
+
+        try {
+            isParsed = parseParts(params);
+        } finally {
+            if (!isParsed) {
+                deleteStoredFiles();
+            }
+        }
+
+        return isParsed;
+    }
+
+    private boolean parseParts(Map<String, String> params) throws IOException {
+        // The preamble in front of the first boundary is ignored.
+        if (!transferUntilDelimiter(2, (bytes, offset, count) -> { })) {
+            return false;
+        }
+
+        while (true) {
+            if (!ensureAvailable(2)) {
+                return false;
+            }
+
+            // The final boundary is followed by "--", anything after it is an epilogue to ignore.
+            if (buffer[position] == '-' && buffer[position + 1] == '-') {
+                return true;
+            }
+
+            if (buffer[position] != '\r' || buffer[position + 1] != '\n') {
+                return false;
+            }
+            position += 2;
+
+            if (!parsePart(params)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Parses the headers and the content of a single part, up to and including the delimiter that ends it.
+     *
+     * @param params - the request params to add the field to
+     * @return false if the part is malformed
+     * @throws IOException if unable to read the body or to write a file part
+     */
+    private boolean parsePart(Map<String, String> params) throws IOException {
+        String fieldName = null;
+        String fileName = null;
+        String headerLine = readLine();
+
+        while (headerLine != null && !headerLine.isEmpty()) {
+            int colonIndex = headerLine.indexOf(':');
+
+            if (colonIndex > 0 && headerLine.substring(0, colonIndex).trim().equalsIgnoreCase("Content-Disposition")) {
+                fieldName = extractDispositionParameter(headerLine, "name");
+                fileName = extractDispositionParameter(headerLine, "filename");
+            }
+            headerLine = readLine();
+        }
+
+        if (headerLine == null || fieldName == null || fieldName.length() > maxNameLength || ++partCount > maxParts) {
+            return false;
+        }
+
+        if (fileName == null) {
+            return receiveTextField(fieldName, params);
+        }
+
+        return receiveFile(fieldName, fileName, params);
+    }
+
+    private boolean receiveTextField(String fieldName, Map<String, String> params) throws IOException {
+        ByteArrayOutputStream fieldValue = new ByteArrayOutputStream();
+        boolean[] isTooLong = {false};
+
+        boolean isReceived = transferUntilDelimiter(0, (bytes, offset, count) -> {
+            if (fieldValue.size() + count > MAX_TEXT_FIELD_LENGTH) {
+                isTooLong[0] = true;
+            } else {
+                fieldValue.write(bytes, offset, count);
+            }
+        });
+
+        if (!isReceived || isTooLong[0]) {
+            return false;
+        }
+
+        params.put(fieldName, fieldValue.toString(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    private boolean receiveFile(String fieldName, String fileName, Map<String, String> params) throws IOException {
+        String safeFileName = sanitizeFileName(fileName);
+
+        // Browsers send an empty file part for a file input left empty.
+        if (safeFileName.isEmpty()) {
+            params.put(fieldName, "");
+            return transferUntilDelimiter(0, (bytes, offset, count) -> { });
+        }
+
+        Files.createDirectories(uploadDirectory);
+        Path storedFile = Files.createTempFile(uploadDirectory, "upload-", "-" + safeFileName);
+        storedFiles.add(storedFile);
+
+        try (FileChannel fileChannel = FileChannel.open(storedFile, StandardOpenOption.WRITE)) {
+            boolean isReceived = transferUntilDelimiter(0, (bytes, offset, count) -> {
+                ByteBuffer content = ByteBuffer.wrap(bytes, offset, count);
+
+                while (content.hasRemaining()) {
+                    fileChannel.write(content);
+                }
+            });
+
+            if (!isReceived) {
+                return false;
+            }
+        }
+
+        params.put(fieldName, storedFile.getFileName().toString());
+        return true;
+    }
+
+    /**
+     * Hands the bytes in front of the next delimiter to the sink and consumes the delimiter.
+     * Only the last bytes of the buffer, which may be the beginning of a delimiter, are held back between reads.
+     *
+     * @param delimiterStart - the index of the first delimiter byte to look for, 2 to skip its line break
+     * @param sink - the destination of the bytes in front of the delimiter
+     * @return false if the body ended before the delimiter
+     * @throws IOException if unable to read the body or to write to the sink
+     */
+    private boolean transferUntilDelimiter(int delimiterStart, PartSink sink) throws IOException {
+        int patternLength = delimiter.length - delimiterStart;
+
+        while (true) {
+            int matchIndex = indexOfDelimiter(delimiterStart);
+
+            if (matchIndex >= 0) {
+                sink.write(buffer, position, matchIndex - position);
+                position = matchIndex + patternLength;
+                return true;
+            }
+
+            int safeEnd = Math.max(position, limit - patternLength + 1);
+            sink.write(buffer, position, safeEnd - position);
+            position = safeEnd;
+
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    private int indexOfDelimiter(int delimiterStart) {
+        int lastStart = limit - (delimiter.length - delimiterStart);
+        byte firstByte = delimiter[delimiterStart];
+
+        for (int i = position; i <= lastStart; i++) {
+            if (buffer[i] != firstByte) {
+                continue;
+            }
+
+            int matched = 1;
+            while (delimiterStart + matched < delimiter.length && buffer[i + matched] == delimiter[delimiterStart + matched]) {
+                matched++;
+            }
+
+            if (delimiterStart + matched == delimiter.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads a part header line.
+     *
+     * @return the line without its line break, or null if the body ends inside the part headers or the line is too long
+     * @throws IOException if unable to read the body
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = position; i + 1 < limit; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                    String line = new String(buffer, position, i - position, StandardCharsets.UTF_8);
+                    position = i + 2;
+                    return line;
+                }
+            }
+
+            if (limit - position > MAX_PART_HEADER_LINE_LENGTH || !fill()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Makes sure the given number of unconsumed bytes is in the buffer.
+     *
+     * @param count - the number of bytes needed
+     * @return false if the body ended before
+     * @throws IOException if unable to read the body
+     */
+    private boolean ensureAvailable(int count) throws IOException {
+        while (limit - position < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves the unconsumed bytes to the beginning of the buffer and reads more bytes behind them.
+     *
+     * @return false if the body ended
+     * @throws IOException if unable to read the body
+     */
+    private boolean fill() throws IOException {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+
+        int bytesRead = input.read(buffer, limit, buffer.length - limit);
+        if (bytesRead < 0) {
+            return false;
+        }
+
+        limit += bytesRead;
+        return true;
+    }
+
+    private void deleteStoredFiles() {
+        for (Path storedFile : storedFiles) {
+            try {
+                Files.deleteIfExists(storedFile);
+            } catch (IOException e) {
+                System.out.println("Error deleting uploaded file: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param headerLine - a Content-Disposition header line
+     * @param parameterName - the parameter to look up, e.g. "name"
+     * @return the parameter value, or null if the header has no such parameter
+     */
+    private static String extractDispositionParameter(String headerLine, String parameterName) {
+        String[] parameters = headerLine.substring(headerLine.indexOf(':') + 1).split(";");
+
+        for (String parameter : parameters) {
+            int equalsIndex = parameter.indexOf('=');
+
+            if (equalsIndex > 0 && parameter.substring(0, equalsIndex).trim().equalsIgnoreCase(parameterName)) {
+                return unquote(parameter.substring(equalsIndex + 1).trim());
+            }
+        }
+
+        return null;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+
+        return value;
+    }
+
+    /**
+     * Reduces a client file name to its last path segment, so an upload cannot leave the upload directory.
+     *
+     * @param fileName - the file name sent by the client
+     * @return the file name without directories and control characters, possibly empty
+     */
+    private static String sanitizeFileName(String fileName) {
+        String baseName = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+        StringBuilder safeName = new StringBuilder();
+
+        for (int i = 0; i < baseName.length(); i++) {
+            char c = baseName.charAt(i);
+
+            if (c >= ' ' && c != 127 && c != ':') {
+                safeName.append(c);
+            }
+        }
+
+        String result = safeName.toString().trim();
+        return (result.equals(".") || result.equals("..")) ? "" : result;
+    }
+}
@@ -0,0 +1,529 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking web server built on a selector per event loop.
+ * One acceptor thread accepts connections and spreads them across the event loops, which do all the socket
+ * reads and writes without blocking. Only fully received requests are dispatched to the ClientHandler logic
+ * on the worker threads, so idle connections cost no thread at all.
+ */
+public class NioWebServer implements ServerEngine {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final long TIMEOUT_SWEEP_INTERVAL = 1000;
+    private static final int MAX_PIPELINED_BATCH = 16;
+    private static final long DRAIN_POLL_INTERVAL = 50;
+
+    private final ServerConfiguration serverConfig;
+    private final WorkerPool workerPool;
+    private final ConnectionContext.Pool contextPool;
+    private final byte[] serviceUnavailableResponse;
+    private final byte[] requestTimeoutResponse = HTTPResponse.encodeErrorResponse(408);
+    private final byte[] continueResponse = HTTPResponse.encodeContinue();
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean isDraining = false;
+
+    /**
+     * Constructs a NioWebServer object with the given server configuration.
+     *
+     * @param serverConfig - the server configuration
+     */
+    public NioWebServer(ServerConfiguration serverConfig) {
+        this.serverConfig = serverConfig;
+        this.workerPool = new WorkerPool(serverConfig);
+        this.contextPool = new ConnectionContext.Pool(serverConfig);
+        this.serviceUnavailableResponse = HTTPResponse.encodeServiceUnavailable(serverConfig.getRetryAfter());
+        this.eventLoops = new EventLoop[serverConfig.getEventLoopThreads()];
+    }
+
+    /**
+     * Starts the event loops, then accepts incoming client connections on the calling thread and
+     * registers each of them with the next event loop in a round-robin order.
+     */
+    @Override
+    public void start() throws IOException {
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop();
+            Thread eventLoopThread = new Thread(eventLoops[i], "nio-event-loop-" + i);
+            eventLoopThread.setDaemon(true);
+            eventLoopThread.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            this.serverChannel = serverChannel;
+            SocketTuning.configureListener(serverChannel, serverConfig);
+            serverChannel.bind(SocketTuning.listenAddress(serverConfig), serverConfig.getBacklog());
+            System.out.println("Web server (nio engine, " + eventLoops.length + " event loops) started on port " + serverConfig.getPort());
+            int nextEventLoop = 0;
+
+            while (!isDraining) {
+                try {
+                    SocketChannel clientChannel = serverChannel.accept();
+
+                    try {
+                        clientChannel.configureBlocking(false);
+                        SocketTuning.configureClient(clientChannel, serverConfig);
+                    } catch (IOException e) {
+                        closeQuietly(clientChannel);
+                        throw e;
+                    }
+
+                    eventLoops[nextEventLoop].register(clientChannel);
+                    nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+                } catch (ClosedChannelException e) {
+                    if (!isDraining) {
+                        throw e;
+                    }
+                } catch (Exception | StackOverflowError e) {
+                    WebServer.notifyInternalServerError(null, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the listening channel and has every event loop close its idle keep-alive connections, then waits for
+     * the other connections to be answered and closed. The event loops keep running until the process exits.
+     */
+    @Override
+    public void shutdown() {
+        System.out.println("Shutting down, draining " + openConnections.get() + " connections for up to "
+                + serverConfig.getShutdownGracePeriod() + " ms");
+        isDraining = true;
+
+        if (serverChannel != null) {
+            closeQuietly(serverChannel);
+        }
+
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.execute(eventLoop::closeIdleConnections);
+            }
+        }
+
+        long drainDeadline = System.currentTimeMillis() + serverConfig.getShutdownGracePeriod();
+        try {
+            while (openConnections.get() > 0 && System.currentTimeMillis() < drainDeadline) {
+                Thread.sleep(DRAIN_POLL_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (openConnections.get() > 0) {
+            System.out.println("Shutdown grace period is over, closing " + openConnections.get() + " connections");
+        }
+
+        workerPool.shutdownNow();
+        System.out.println("Web server stopped");
+    }
+
+    /**
+     * A selector thread that owns a set of client connections and performs their non-blocking I/O.
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+        // Shared by every connection of this loop, the bytes are copied out right after each read.
+        private final BufferPool.PooledBuffer readBuffer = BufferPool.acquire(READ_BUFFER_SIZE);
+        private long lastTimeoutSweep = System.currentTimeMillis();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Hands a newly accepted connection to this event loop.
+         *
+         * @param clientChannel - a connected channel in non-blocking mode
+         */
+        void register(SocketChannel clientChannel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(clientChannel);
+                    connection.key = clientChannel.register(selector, SelectionKey.OP_READ, connection);
+                    openConnections.incrementAndGet();
+                } catch (IOException e) {
+                    closeQuietly(clientChannel);
+                }
+            });
+        }
+
+        /**
+         * Runs a task on the event loop thread, which is the only thread allowed to touch the selection keys.
+         *
+         * @param task - the task to run
+         */
+        void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(TIMEOUT_SWEEP_INTERVAL);
+                    runPendingTasks();
+
+                    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext()) {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+                        handleReadyKey(key);
+                    }
+
+                    enforceTimeouts();
+                } catch (Exception | StackOverflowError e) {
+                    WebServer.notifyInternalServerError(null, e.getMessage());
+                }
+            }
+        }
+
+        private void runPendingTasks() {
+            Runnable task;
+
+            while ((task = pendingTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    WebServer.notifyInternalServerError(null, e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Enforces the read, write, keep-alive and request timeouts of the connections, once per sweep interval.
+         */
+        private void enforceTimeouts() {
+            long now = System.currentTimeMillis();
+
+            if (now - lastTimeoutSweep < TIMEOUT_SWEEP_INTERVAL) {
+                return;
+            }
+
+            lastTimeoutSweep = now;
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    ((Connection) key.attachment()).enforceTimeouts(now);
+                }
+            }
+        }
+
+        /**
+         * Closes the connections that wait for their next request, once a shutdown started.
+         * Connections that did not send their first request yet are given the header read timeout to do so.
+         */
+        void closeIdleConnections() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    ((Connection) key.attachment()).closeIfIdle();
+                }
+            }
+        }
+
+        private void handleReadyKey(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+
+        /**
+         * The state of a single client connection.
+         */
+        private class Connection {
+            private final SocketChannel channel;
+            private final RequestFramer framer = new RequestFramer(serverConfig);
+            private SelectionKey key;
+            private OutgoingResponse pendingResponse;
+            private ByteBuffer pendingContinue;
+            private boolean keepAlive = false;
+            private boolean isProcessing = false;
+            private int handledRequests = 0;
+            private long lastActivity = System.currentTimeMillis();
+            private long lastReadAt = 0;
+            private long requestStartedAt = 0;
+            private long bodyStartedAt = 0;
+            private long lastWriteProgress = 0;
+
+            Connection(SocketChannel channel) {
+                this.channel = channel;
+            }
+
+            /**
+             * Reads the available bytes and dispatches the request to a worker once it was fully received.
+             */
+            void onReadable() throws IOException {
+                ByteBuffer readBuffer = EventLoop.this.readBuffer.buffer();
+                readBuffer.clear();
+                int bytesRead = channel.read(readBuffer);
+
+                if (bytesRead < 0) {
+                    close();
+                    return;
+                }
+
+                readBuffer.flip();
+                lastActivity = System.currentTimeMillis();
+                lastReadAt = lastActivity;
+                if (framer.isEmpty()) {
+                    requestStartedAt = lastActivity;
+                }
+
+                framer.append(readBuffer);
+                dispatchNextRequest();
+
+                if (bodyStartedAt == 0 && framer.isReadingBody()) {
+                    bodyStartedAt = lastActivity;
+                }
+            }
+
+            /**
+             * Dispatches the fully received requests as one batch. Reading is paused until the batch was answered,
+             * so responses go out in the order of the requests.
+             */
+            private void dispatchNextRequest() throws IOException {
+                List<RequestFramer.FramedRequest> batch = new ArrayList<>();
+                RequestFramer.FramedRequest framedRequest;
+
+                while (batch.size() < MAX_PIPELINED_BATCH && (framedRequest = framer.poll()) != null) {
+                    batch.add(framedRequest);
+                }
+
+                if (!batch.isEmpty()) {
+                    key.interestOps(0);
+                    isProcessing = true;
+                    bodyStartedAt = 0;
+                    dispatch(batch);
+                } else if (framer.pollContinue()) {
+                    sendContinue();
+                }
+            }
+
+            /**
+             * Sends "100 Continue" to a client that waits for it before sending the entity body. The interim response
+             * nearly always fits into the socket send buffer, otherwise its rest is written on OP_WRITE, or in front
+             * of the next response.
+             */
+            private void sendContinue() throws IOException {
+                ByteBuffer interimResponse = ByteBuffer.wrap(continueResponse);
+                channel.write(interimResponse);
+
+                if (interimResponse.hasRemaining()) {
+                    pendingContinue = interimResponse;
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+
+            /**
+             * Closes the connection if it waits longer than allowed for the client. A client that sent part of a
+             * request for too long is answered with 408, a client that does not read its response is aborted, and
+             * a connection without any pending request is closed silently.
+             *
+             * @param now - the current time in milliseconds
+             */
+            void enforceTimeouts(long now) {
+                if (isProcessing) {
+                    if (pendingResponse != null && now - lastWriteProgress > serverConfig.getWriteTimeout()) {
+                        abort("write");
+                    } else if (now - requestStartedAt > serverConfig.getRequestDeadline()) {
+                        abort("deadline");
+                    }
+                } else if (!framer.isEmpty()) {
+                    if (now - requestStartedAt > serverConfig.getRequestDeadline()) {
+                        respondWithRequestTimeout("deadline");
+                    } else if (bodyStartedAt > 0 && now - bodyStartedAt > serverConfig.getBodyReadTimeout()) {
+                        respondWithRequestTimeout("body");
+                    } else if (bodyStartedAt == 0 && now - requestStartedAt > serverConfig.getHeaderReadTimeout()) {
+                        respondWithRequestTimeout("header");
+                    }
+                } else {
+                    long idleTimeout = (handledRequests > 0) ? serverConfig.getKeepAliveTimeout() : serverConfig.getHeaderReadTimeout();
+
+                    if (now - lastActivity > idleTimeout) {
+                        close();
+                    }
+                }
+            }
+
+            void closeIfIdle() {
+                if (!isProcessing && framer.isEmpty() && handledRequests > 0) {
+                    close();
+                }
+            }
+
+            private void respondWithRequestTimeout(String timeoutName) {
+                ServerMetrics.increment("timeouts." + timeoutName);
+                key.interestOps(0);
+                isProcessing = true;
+                startWriting(OutgoingResponse.of(BufferPool.wrap(requestTimeoutResponse)), false);
+            }
+
+            private void abort(String timeoutName) {
+                ServerMetrics.increment("timeouts." + timeoutName);
+                close();
+            }
+
+            /**
+             * Runs the ClientHandler logic for a batch of pipelined requests on a worker thread, one after the other,
+             * and queues all their responses for a single write. The requests that follow one that closes the
+             * connection are dropped. If the workers have no room for the batch, or it waited too long for one,
+             * the connection is answered with the pre-encoded 503 response and closed.
+             *
+             * @param batch - the fully received requests, in the order they arrived
+             */
+            private void dispatch(List<RequestFramer.FramedRequest> batch) {
+                int firstRequestNumber = handledRequests + 1;
+                handledRequests += batch.size();
+
+                workerPool.execute(() -> answerBatch(batch, firstRequestNumber), () -> {
+                    RequestFramer.releaseBodies(batch, 0);
+                    execute(() -> startWriting(OutgoingResponse.of(BufferPool.wrap(serviceUnavailableResponse)), false));
+                });
+            }
+
+            /**
+             * Answers the requests of a batch one after the other into a single buffer, on a worker thread.
+             *
+             * @param batch - the fully received requests, in the order they arrived
+             * @param firstRequestNumber - the number of the first request of the batch on this connection
+             */
+            private void answerBatch(List<RequestFramer.FramedRequest> batch, int firstRequestNumber) {
+                ConnectionContext context = contextPool.acquire();
+                ClientHandler clientHandler = new ClientHandler(serverConfig, context);
+                OutgoingResponse outgoingResponse;
+                boolean keepConnectionAlive = true;
+                int answered = 0;
+
+                try {
+                    while (answered < batch.size() && keepConnectionAlive) {
+                        RequestFramer.FramedRequest framedRequest = batch.get(answered);
+                        boolean mayKeepAlive = firstRequestNumber + answered < serverConfig.getKeepAliveMaxRequests() && !isDraining;
+                        keepConnectionAlive = clientHandler.handleBufferedRequest(framedRequest, mayKeepAlive);
+                        answered++;
+                    }
+                    // The bytes are copied out, as the context goes back to the pool before they are written.
+                    outgoingResponse = context.getResponseBuffer().toOutgoingResponse();
+                } finally {
+                    contextPool.release(context);
+                }
+                RequestFramer.releaseBodies(batch, answered);
+                // The worker is done with the heads, and the framer does not poll again before the batch was written.
+                framer.recycle(batch);
+
+                boolean keepAliveAfterBatch = keepConnectionAlive;
+                execute(() -> startWriting(outgoingResponse, keepAliveAfterBatch));
+            }
+
+            private void startWriting(OutgoingResponse response, boolean keepConnectionAlive) {
+                if (!channel.isOpen()) {
+                    response.release();
+                    return;
+                }
+
+                if (pendingContinue != null) {
+                    BufferPool.PooledBuffer continueRest = BufferPool.acquire(pendingContinue.remaining());
+                    continueRest.buffer().put(pendingContinue).flip();
+                    response.prependBytes(continueRest);
+                    pendingContinue = null;
+                }
+
+                pendingResponse = response;
+                keepAlive = keepConnectionAlive;
+                lastWriteProgress = System.currentTimeMillis();
+
+                try {
+                    onWritable();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+
+            /**
+             * Writes as much of the pending response as the socket accepts, file regions are transferred to the
+             * socket without passing through the JVM, and waits for OP_WRITE for the rest.
+             * Once the response was fully written the connection either waits for its next request or is closed.
+             */
+            void onWritable() throws IOException {
+                if (pendingResponse == null) {
+                    // Only the rest of a "100 Continue" is waiting, the connection keeps reading the request.
+                    channel.write(pendingContinue);
+                    if (!pendingContinue.hasRemaining()) {
+                        pendingContinue = null;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    return;
+                }
+
+                if (pendingResponse.writeTo(channel) > 0) {
+                    lastWriteProgress = System.currentTimeMillis();
+                }
+
+                if (!pendingResponse.isComplete()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (keepAlive && !isDraining) {
+                    pendingResponse.release();
+                    pendingResponse = null;
+                    isProcessing = false;
+                    // Reading was paused, so the start of the next request in the framer came with the last read.
+                    if (!framer.isEmpty()) {
+                        requestStartedAt = lastReadAt;
+                    }
+                    lastActivity = System.currentTimeMillis();
+                    key.interestOps(SelectionKey.OP_READ);
+                    dispatchNextRequest();
+                } else {
+                    close();
+                }
+            }
+
+            void close() {
+                if (key != null) {
+                    key.cancel();
+                }
+
+                if (channel.isOpen()) {
+                    openConnections.decrementAndGet();
+                }
+                closeQuietly(channel);
+                framer.release();
+
+                if (pendingResponse != null) {
+                    pendingResponse.release();
+                    pendingResponse = null;
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing resources: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * The responses of a batch as the non-blocking engines write them to the client: a sequence of pooled buffers and
+ * regions of files. A file region is sent with FileChannel.transferTo() where the client channel allows it, so the
+ * kernel sends the file (sendfile) and its bytes never enter the JVM, otherwise it is read slice by slice into a
+ * pooled direct buffer, which keeps it off the heap as well.
+ * A response is owned by one thread at a time and must be released once it was written or the connection closed.
+ */
+public class OutgoingResponse {
+    /**
+     * The data size of the chunks a file is framed into for a chunked response. Together with its framing,
+     * a chunk fits into one 64 KB buffer of the BufferPool.
+     */
+    public static final int FILE_CHUNK_SIZE = 32768;
+    private static final int FILE_SLICE_SIZE = 65536;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final ArrayDeque<Part> parts = new ArrayDeque<>();
+
+    /**
+     * A pooled buffer, or a region of a file from position to end, possibly framed into chunks.
+     */
+    private static class Part {
+        private final BufferPool.PooledBuffer bytes;
+        private final FileChannel file;
+        private final long end;
+        private final boolean isChunked;
+        private long position;
+        private BufferPool.PooledBuffer fileSlice;
+
+        Part(BufferPool.PooledBuffer bytes) {
+            this.bytes = bytes;
+            this.file = null;
+            this.end = 0;
+            this.isChunked = false;
+        }
+
+        Part(FileChannel file, long position, long count, boolean isChunked) {
+            this.bytes = null;
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+            this.isChunked = isChunked;
+        }
+
+        void release() {
+            if (bytes != null) {
+                bytes.release();
+            }
+
+            if (fileSlice != null) {
+                fileSlice.release();
+                fileSlice = null;
+            }
+
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing resources: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param bytes - the bytes of a complete response, e.g. a pre-encoded error response
+     * @return a response consisting of the given bytes only
+     */
+    public static OutgoingResponse of(BufferPool.PooledBuffer bytes) {
+        OutgoingResponse response = new OutgoingResponse();
+        response.addBytes(bytes);
+        return response;
+    }
+
+    /**
+     * @param bytes - bytes to send after the parts added so far, ready to be read
+     */
+    public void addBytes(BufferPool.PooledBuffer bytes) {
+        parts.addLast(new Part(bytes));
+    }
+
+    /**
+     * @param file - the file to send a region of after the parts added so far, closed once it was sent
+     * @param position - the position of the region in the file
+     * @param count - the length of the region
+     * @param isChunked - true to frame the region into chunks of FILE_CHUNK_SIZE bytes, without the last chunk
+     */
+    public void addFile(FileChannel file, long position, long count, boolean isChunked) {
+        parts.addLast(new Part(file, position, count, isChunked));
+    }
+
+    /**
+     * @param bytes - bytes to send before all the other parts, e.g. the rest of a "100 Continue"
+     */
+    public void prependBytes(BufferPool.PooledBuffer bytes) {
+        parts.addFirst(new Part(bytes));
+    }
+
+    /**
+     * @return true if every part was written
+     */
+    public boolean isComplete() {
+        return parts.isEmpty();
+    }
+
+    /**
+     * Writes as much as the non-blocking channel accepts. A chunked file region cannot be transferred as it is,
+     * it is written slice by slice like for an asynchronous channel.
+     *
+     * @param channel - the client channel
+     * @return the number of bytes written
+     * @throws IOException if unable to write to the channel or to read a file
+     */
+    public long writeTo(WritableByteChannel channel) throws IOException {
+        long written = 0;
+
+        while (!parts.isEmpty()) {
+            Part part = parts.peekFirst();
+
+            if (part.bytes != null) {
+                written += channel.write(part.bytes.buffer());
+
+                if (part.bytes.buffer().hasRemaining()) {
+                    return written;
+                }
+            } else if (part.isChunked) {
+                ByteBuffer nextBytes = nextFileBytes(part);
+
+                if (nextBytes != null) {
+                    written += channel.write(nextBytes);
+
+                    if (nextBytes.hasRemaining()) {
+                        return written;
+                    }
+                    continue;
+                }
+            } else {
+                long transferred = part.file.transferTo(part.position, part.end - part.position, channel);
+                part.position += transferred;
+                written += transferred;
+
+                if (part.position < part.end) {
+                    if (transferred > 0) {
+                        continue;
+                    }
+
+                    if (part.position >= part.file.size()) {
+                        throw new IOException("File shrank while being sent");
+                    }
+                    return written;
+                }
+            }
+
+            parts.removeFirst().release();
+        }
+
+        return written;
+    }
+
+    /**
+     * Gives the next bytes to write, for channels that cannot take a file transfer. A file region is read into a
+     * pooled direct buffer one slice at a time. The parts written completely are released on the way.
+     *
+     * @return the buffer to write next, or null once every part was written
+     * @throws IOException if unable to read a file
+     */
+    public ByteBuffer nextBuffer() throws IOException {
+        while (!parts.isEmpty()) {
+            Part part = parts.peekFirst();
+
+            if (part.bytes != null) {
+                if (part.bytes.buffer().hasRemaining()) {
+                    return part.bytes.buffer();
+                }
+            } else {
+                ByteBuffer nextBytes = nextFileBytes(part);
+
+                if (nextBytes != null) {
+                    return nextBytes;
+                }
+            }
+
+            parts.removeFirst().release();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the rest of the current slice of a file region, the next slice, or null once the region was written
+     */
+    private static ByteBuffer nextFileBytes(Part part) throws IOException {
+        if (part.fileSlice != null && part.fileSlice.buffer().hasRemaining()) {
+            return part.fileSlice.buffer();
+        }
+
+        return (part.position < part.end) ? readFileSlice(part) : null;
+    }
+
+    /**
+     * Reads the next slice of a file region into the pooled buffer of the part, a chunked region gets one chunk
+     * with its framing per slice.
+     */
+    private static ByteBuffer readFileSlice(Part part) throws IOException {
+        int sliceSize = (int) Math.min(part.isChunked ? FILE_CHUNK_SIZE : FILE_SLICE_SIZE, part.end - part.position);
+        byte[] chunkHeader = part.isChunked ? encodeChunkHeader(sliceSize) : new byte[0];
+        int framingSize = part.isChunked ? chunkHeader.length + CRLF.length : 0;
+
+        if (part.fileSlice == null) {
+            part.fileSlice = BufferPool.acquire(sliceSize + framingSize);
+        }
+
+        ByteBuffer slice = part.fileSlice.buffer();
+        slice.clear();
+        slice.put(chunkHeader);
+        int dataStart = slice.position();
+        slice.limit(dataStart + sliceSize);
+
+        while (slice.hasRemaining()) {
+            if (part.file.read(slice, part.position + slice.position() - dataStart) < 0) {
+                throw new IOException("File shrank while being sent");
+            }
+        }
+        part.position += sliceSize;
+
+        if (part.isChunked) {
+            slice.limit(slice.capacity());
+            slice.put(CRLF);
+        }
+        return slice.flip();
+    }
+
+    /**
+     * @param chunkSize - the data size of a chunk
+     * @return the chunk-size line in front of the chunk data
+     */
+    public static byte[] encodeChunkHeader(int chunkSize) {
+        return (Integer.toHexString(chunkSize) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Releases the buffers and closes the files of the parts that were not written.
+     */
+    public void release() {
+        while (!parts.isEmpty()) {
+            parts.removeFirst().release();
+        }
+    }
+}
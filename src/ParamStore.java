@@ -0,0 +1,650 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A durable store of the params submitted with GET and POST requests, kept as an append-only log split into
+ * segment files, with in-memory indexes of the latest value of every param: one sorted by name and one sorted by
+ * submission time, so lookups by name, name prefix and time range walk a sorted range instead of every param.
+ * <p>
+ * A single writer thread appends the records: it takes every submission that is waiting, writes them with one
+ * gathering write and makes them durable with one fsync (group commit), so the cost of an fsync is shared by all the
+ * requests that arrived meanwhile. append() returns once its record is durable. The active segment is sealed and a
+ * new one started once it grows beyond the segment size.
+ * <p>
+ * Every record carries its length and a CRC32 checksum. On startup the segments are replayed in order to rebuild the
+ * index, a record torn by a crash ends the replay of its segment and is cut off. Periodically, the sealed segments are
+ * compacted into one that holds only the latest value of each of their params.
+ * <p>
+ * The indexes hold every param name ever submitted, so their number is capped: a submission that would add names
+ * beyond paramStoreMaxParams is refused as a whole, while new values of the names already stored are still taken.
+ * The cap is checked by the writer thread, which adds every name, so concurrent submissions cannot overshoot it.
+ * Recovery loads the segments whatever the cap, a lowered cap only stops new names.
+ * <p>
+ * Record layout: int payload length, int CRC32 of the payload, then the payload: long sequence, long timestamp,
+ * int param count, and per param the int length and UTF-8 bytes of its name and of its value.
+ */
+public class ParamStore {
+    private static final String SEGMENT_PREFIX = "params-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTION_SUFFIX = ".compacting";
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int PAYLOAD_FIXED_SIZE = 20;
+    private static final int MAX_BATCH_RECORDS = 1024;
+
+    private static final Comparator<StoredParam> BY_TIME = Comparator.comparingLong(StoredParam::getTimestamp).thenComparing(StoredParam::getName);
+
+    private static final ConcurrentSkipListMap<String, StoredParam> index = new ConcurrentSkipListMap<>();
+    // The same params as the index, sorted by timestamp and then by name.
+    private static final ConcurrentSkipListSet<StoredParam> timeIndex = new ConcurrentSkipListSet<>(BY_TIME);
+    private static final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private static final AtomicLong lastSequence = new AtomicLong();
+    private static final AtomicLong version = new AtomicLong();
+    // The ids of the sealed segments, in ascending order, guarded by their own lock.
+    private static final List<Long> sealedSegments = new ArrayList<>();
+    private static volatile boolean isDurable = false;
+    private static volatile int maxParams = Integer.MAX_VALUE;
+    // The number of names in the index, only changed within applyToIndex().
+    private static volatile int paramCount = 0;
+    private static Path directory;
+    private static long segmentSize;
+    // Only touched by the writer thread once it started.
+    private static FileChannel activeChannel;
+    private static long activeSegmentId;
+    private static long activeSize;
+
+    private ParamStore() {
+    }
+
+    /**
+     * The latest value of a param, as kept in the index.
+     */
+    public static class StoredParam {
+        private final String name;
+        private final String value;
+        private final long timestamp;
+        private final long sequence;
+        private final long segmentId;
+
+        StoredParam(String name, String value, long timestamp, long sequence, long segmentId) {
+            this.name = name;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.sequence = sequence;
+            this.segmentId = segmentId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return the time the param was submitted, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the sequence number of the submission, later submissions have higher ones
+         */
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * A submission waiting for the writer thread.
+     */
+    private static class PendingWrite {
+        private final Map<String, String> params;
+        private final long timestamp;
+        // Completed with false if the submission was refused for adding too many param names.
+        private final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        PendingWrite(Map<String, String> params, long timestamp) {
+            this.params = params;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Recovers the index from the segments in the store directory, and starts the writer and compaction threads.
+     * If the directory cannot be used, the store keeps the params in memory only.
+     *
+     * @param serverConfig - the server configuration, for the store directory, segment size and compaction interval
+     */
+    public static void open(ServerConfiguration serverConfig) {
+        directory = serverConfig.getParamStoreDirectory();
+        segmentSize = serverConfig.getParamStoreSegmentSize();
+        maxParams = serverConfig.getParamStoreMaxParams();
+
+        try {
+            Files.createDirectories(directory);
+            recover();
+            startNewSegment();
+            isDurable = true;
+        } catch (IOException e) {
+            System.out.println("Parameter store disabled, params are kept in memory only: " + e.getMessage());
+            return;
+        }
+
+        Thread writerThread = new Thread(ParamStore::writePendingRecords, "param-store-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        int compactionInterval = serverConfig.getParamStoreCompactionInterval();
+        if (compactionInterval > 0) {
+            Thread compactionThread = new Thread(() -> compactPeriodically(compactionInterval * 1000L), "param-store-compactor");
+            compactionThread.setDaemon(true);
+            compactionThread.start();
+        }
+
+        System.out.println("Parameter store opened in " + directory + " with " + index.size() + " params");
+    }
+
+    /**
+     * Stores the params of a request, and returns once they are durable.
+     *
+     * @param params - the params, they are copied, so the caller may reuse the map
+     * @return true if the params were stored, false if they would add more param names than the store may hold
+     * @throws IOException if unable to write the params to the log
+     */
+    public static boolean append(Map<String, String> params) throws IOException {
+        if (params.isEmpty()) {
+            return true;
+        }
+
+        PendingWrite pendingWrite = new PendingWrite(Map.copyOf(params), System.currentTimeMillis());
+
+        if (!isDurable) {
+            return applyInMemory(pendingWrite);
+        }
+
+        pendingWrites.add(pendingWrite);
+
+        try {
+            return pendingWrite.done.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to store the params: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while storing the params", e);
+        }
+    }
+
+    /**
+     * @return the latest value of every stored param, sorted by name
+     */
+    public static Collection<StoredParam> getParams() {
+        return Collections.unmodifiableCollection(index.values());
+    }
+
+    /**
+     * @param name - the name of a param
+     * @return the latest value of the param, or null if it was never stored
+     */
+    public static StoredParam getParam(String name) {
+        return index.get(name);
+    }
+
+    /**
+     * @param fromName - the name to start at
+     * @param isInclusive - true to include the param named fromName itself
+     * @return the latest value of every stored param from the given name on, sorted by name
+     */
+    public static Collection<StoredParam> getParamsFrom(String fromName, boolean isInclusive) {
+        return Collections.unmodifiableCollection(index.tailMap(fromName, isInclusive).values());
+    }
+
+    /**
+     * @param fromTimestamp - the earliest submission time, inclusive
+     * @param afterName - null to start at fromTimestamp, or the name of the param submitted at fromTimestamp to
+     *                  start behind, to continue where a previous lookup stopped
+     * @param toTimestamp - the latest submission time, exclusive
+     * @return the params whose latest value was submitted in the given time range, sorted by time and then by name
+     */
+    public static NavigableSet<StoredParam> getParamsByTime(long fromTimestamp, String afterName, long toTimestamp) {
+        StoredParam lowerBound = new StoredParam((afterName != null) ? afterName : "", null, fromTimestamp, 0, -1);
+        StoredParam upperBound = new StoredParam("", null, toTimestamp, 0, -1);
+
+        if (BY_TIME.compare(lowerBound, upperBound) >= 0) {
+            return Collections.emptyNavigableSet();
+        }
+
+        return Collections.unmodifiableNavigableSet(timeIndex.subSet(lowerBound, afterName == null, upperBound, false));
+    }
+
+    /**
+     * @return a number that changes whenever params were stored, so views of the params can tell they are outdated
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    private static void writePendingRecords() {
+        List<PendingWrite> batch = new ArrayList<>();
+
+        while (true) {
+            try {
+                batch.add(pendingWrites.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pendingWrites.drainTo(batch, MAX_BATCH_RECORDS - 1);
+            refuseParamsBeyondLimit(batch);
+
+            try {
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+                for (PendingWrite pendingWrite : batch) {
+                    pendingWrite.done.complete(true);
+                }
+            } catch (IOException e) {
+                System.out.println("Error writing the parameter store: " + e.getMessage());
+                for (PendingWrite pendingWrite : batch) {
+                    pendingWrite.done.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a batch of submissions to the active segment with a single write and a single fsync, and adds them to
+     * the index once they are durable. If the write fails, the segment is cut back to its previous end, so no torn
+     * record is left in front of the next batch.
+     *
+     * @param batch - the submissions, in the order they arrived
+     * @throws IOException if unable to write or sync the segment
+     */
+    private static void commit(List<PendingWrite> batch) throws IOException {
+        if (activeSize >= segmentSize) {
+            sealActiveSegment();
+            startNewSegment();
+        }
+
+        ByteBuffer[] records = new ByteBuffer[batch.size()];
+        long[] sequences = new long[batch.size()];
+        long batchSize = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            sequences[i] = lastSequence.incrementAndGet();
+            records[i] = encodeRecord(sequences[i], batch.get(i).timestamp, batch.get(i).params);
+            batchSize += records[i].remaining();
+        }
+
+        try {
+            long written = 0;
+            while (written < batchSize) {
+                written += activeChannel.write(records);
+            }
+            activeChannel.force(false);
+        } catch (IOException e) {
+            activeChannel.truncate(activeSize);
+            throw e;
+        }
+        activeSize += batchSize;
+
+        for (int i = 0; i < batch.size(); i++) {
+            applyToIndex(batch.get(i).params, batch.get(i).timestamp, sequences[i], activeSegmentId);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Removes the submissions from a batch that would add param names beyond the limit, and completes them as refused.
+     * Runs on the writer thread, the only one adding names to the index once the store is durable.
+     *
+     * @param batch - the submissions, in the order they arrived
+     */
+    private static void refuseParamsBeyondLimit(List<PendingWrite> batch) {
+        Set<String> admittedNames = new HashSet<>();
+        Iterator<PendingWrite> submissions = batch.iterator();
+
+        while (submissions.hasNext()) {
+            PendingWrite pendingWrite = submissions.next();
+
+            if (hasRoomFor(pendingWrite.params, admittedNames)) {
+                for (String name : pendingWrite.params.keySet()) {
+                    if (!index.containsKey(name)) {
+                        admittedNames.add(name);
+                    }
+                }
+            } else {
+                ServerMetrics.increment("paramstore.refused");
+                pendingWrite.done.complete(false);
+                submissions.remove();
+            }
+        }
+    }
+
+    /**
+     * @param params - the params of a submission
+     * @param admittedNames - the new names of the submissions admitted before it, which are not indexed yet
+     * @return true if the names the params add to the index fit within the limit
+     */
+    private static boolean hasRoomFor(Map<String, String> params, Set<String> admittedNames) {
+        int newNames = 0;
+
+        for (String name : params.keySet()) {
+            if (!index.containsKey(name) && !admittedNames.contains(name)) {
+                newNames++;
+            }
+        }
+        return newNames == 0 || (long) paramCount + admittedNames.size() + newNames <= maxParams;
+    }
+
+    /**
+     * Adds a submission to the indexes of the in-memory store, if its names fit within the limit.
+     * Synchronized like applyToIndex(), so the check and the update happen together.
+     */
+    private static synchronized boolean applyInMemory(PendingWrite pendingWrite) {
+        if (!hasRoomFor(pendingWrite.params, Set.of())) {
+            ServerMetrics.increment("paramstore.refused");
+            return false;
+        }
+
+        applyToIndex(pendingWrite.params, pendingWrite.timestamp, lastSequence.incrementAndGet(), -1);
+        version.incrementAndGet();
+        return true;
+    }
+
+    private static void startNewSegment() throws IOException {
+        activeSegmentId++;
+        activeChannel = FileChannel.open(segmentPath(activeSegmentId), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        activeSize = 0;
+        syncDirectory();
+    }
+
+    private static void sealActiveSegment() throws IOException {
+        activeChannel.close();
+
+        synchronized (sealedSegments) {
+            sealedSegments.add(activeSegmentId);
+        }
+    }
+
+    /**
+     * Adds the params of a submission to the indexes, unless a later submission already set them.
+     * Synchronized so the two indexes are updated together, only the in-memory store calls it from several threads.
+     */
+    private static synchronized void applyToIndex(Map<String, String> params, long timestamp, long sequence, long segmentId) {
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            StoredParam current = index.get(param.getKey());
+
+            if (current == null || sequence > current.sequence) {
+                StoredParam storedParam = new StoredParam(param.getKey(), param.getValue(), timestamp, sequence, segmentId);
+                index.put(param.getKey(), storedParam);
+
+                if (current != null) {
+                    timeIndex.remove(current);
+                } else {
+                    paramCount++;
+                }
+                timeIndex.add(storedParam);
+            }
+        }
+    }
+
+    private static ByteBuffer encodeRecord(long sequence, long timestamp, Map<String, String> params) {
+        byte[][] fields = new byte[params.size() * 2][];
+        int payloadSize = PAYLOAD_FIXED_SIZE;
+        int fieldIndex = 0;
+
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            fields[fieldIndex] = param.getKey().getBytes(StandardCharsets.UTF_8);
+            fields[fieldIndex + 1] = param.getValue().getBytes(StandardCharsets.UTF_8);
+            payloadSize += 8 + fields[fieldIndex].length + fields[fieldIndex + 1].length;
+            fieldIndex += 2;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadSize);
+        record.putInt(payloadSize).putInt(0).putLong(sequence).putLong(timestamp).putInt(params.size());
+        for (byte[] field : fields) {
+            record.putInt(field.length).put(field);
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), RECORD_HEADER_SIZE, payloadSize);
+        record.putInt(4, (int) checksum.getValue());
+        return record.flip();
+    }
+
+    /**
+     * Rebuilds the index from the segments, oldest first. Leftovers of an interrupted compaction are deleted,
+     * the segments it was merging are all still there, and so are empty segments.
+     *
+     * @throws IOException if unable to read the store directory or a segment
+     */
+    private static void recover() throws IOException {
+        List<Long> segmentIds = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+
+                // A segment that never got a record, e.g. the active one of a run without requests, is dropped.
+                if (fileName.endsWith(COMPACTION_SUFFIX) || Files.size(file) == 0) {
+                    Files.delete(file);
+                } else if (fileName.endsWith(SEGMENT_SUFFIX)) {
+                    segmentIds.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())));
+                }
+            }
+        }
+
+        Collections.sort(segmentIds);
+        for (long segmentId : segmentIds) {
+            replaySegment(segmentId);
+        }
+
+        sealedSegments.addAll(segmentIds);
+        activeSegmentId = segmentIds.isEmpty() ? 0 : segmentIds.get(segmentIds.size() - 1);
+    }
+
+    /**
+     * Adds the records of a segment to the index. A record that is incomplete or fails its checksum was torn by a
+     * crash, the segment is cut off in front of it.
+     *
+     * @param segmentId - the id of the segment
+     * @throws IOException if unable to read or truncate the segment
+     */
+    private static void replaySegment(long segmentId) throws IOException {
+        Path segmentPath = segmentPath(segmentId);
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(segmentPath));
+        CRC32 checksum = new CRC32();
+        int validEnd = 0;
+
+        while (content.remaining() >= RECORD_HEADER_SIZE) {
+            int payloadSize = content.getInt();
+            int expectedChecksum = content.getInt();
+
+            if (payloadSize < PAYLOAD_FIXED_SIZE || payloadSize > content.remaining()) {
+                break;
+            }
+
+            checksum.reset();
+            checksum.update(content.array(), content.position(), payloadSize);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                break;
+            }
+
+            if (!replayRecord(content.slice(content.position(), payloadSize), segmentId)) {
+                break;
+            }
+            content.position(content.position() + payloadSize);
+            validEnd = content.position();
+        }
+
+        if (validEnd < content.limit()) {
+            System.out.println("Parameter store segment " + segmentPath.getFileName() + " ends with a torn record, keeping "
+                    + validEnd + " of " + content.limit() + " bytes");
+
+            try (FileChannel segmentChannel = FileChannel.open(segmentPath, StandardOpenOption.WRITE)) {
+                segmentChannel.truncate(validEnd);
+                segmentChannel.force(true);
+            }
+        }
+    }
+
+    /**
+     * @param payload - the payload of a record whose checksum matched
+     * @param segmentId - the id of the segment holding the record
+     * @return false if the payload is malformed
+     */
+    private static boolean replayRecord(ByteBuffer payload, long segmentId) {
+        long sequence = payload.getLong();
+        long timestamp = payload.getLong();
+        int paramCount = payload.getInt();
+
+        for (int i = 0; i < paramCount; i++) {
+            String name = readString(payload);
+            String value = (name != null) ? readString(payload) : null;
+
+            if (value == null) {
+                return false;
+            }
+
+            applyToIndex(Map.of(name, value), timestamp, sequence, segmentId);
+        }
+
+        lastSequence.accumulateAndGet(sequence, Math::max);
+        version.incrementAndGet();
+        return true;
+    }
+
+    private static String readString(ByteBuffer payload) {
+        if (payload.remaining() < 4) {
+            return null;
+        }
+
+        int length = payload.getInt();
+        if (length < 0 || length > payload.remaining()) {
+            return null;
+        }
+
+        String value = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    private static void compactPeriodically(long intervalMillis) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                compactSealedSegments();
+            } catch (IOException e) {
+                System.out.println("Error compacting the parameter store: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Merges all the sealed segments into one that holds only the latest value of each of their params.
+     * The merged segment takes the id of the newest sealed segment, replacing it with an atomic rename, and the
+     * older ones are deleted afterwards. A crash in between leaves older values next to the merged ones, which the
+     * sequence numbers resolve on recovery.
+     *
+     * @throws IOException if unable to write the merged segment or delete the merged ones
+     */
+    private static void compactSealedSegments() throws IOException {
+        List<Long> segmentIds;
+
+        synchronized (sealedSegments) {
+            if (sealedSegments.size() < 2) {
+                return;
+            }
+            segmentIds = new ArrayList<>(sealedSegments);
+        }
+
+        // Every param held by a sealed segment has a segment id up to the newest sealed one.
+        long targetId = segmentIds.get(segmentIds.size() - 1);
+        Path compactionPath = directory.resolve(SEGMENT_PREFIX + formatSegmentId(targetId) + COMPACTION_SUFFIX);
+        int keptParams = 0;
+
+        try (FileChannel compactionChannel = FileChannel.open(compactionPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (StoredParam param : index.values()) {
+                if (param.segmentId >= 0 && param.segmentId <= targetId) {
+                    ByteBuffer record = encodeRecord(param.sequence, param.timestamp, Map.of(param.name, param.value));
+                    while (record.hasRemaining()) {
+                        compactionChannel.write(record);
+                    }
+                    keptParams++;
+                }
+            }
+            compactionChannel.force(true);
+        }
+
+        Files.move(compactionPath, segmentPath(targetId), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        for (long segmentId : segmentIds) {
+            if (segmentId != targetId) {
+                Files.deleteIfExists(segmentPath(segmentId));
+            }
+        }
+
+        synchronized (sealedSegments) {
+            sealedSegments.removeAll(segmentIds);
+            sealedSegments.add(0, targetId);
+        }
+
+        ServerMetrics.increment("paramstore.compactions");
+        System.out.println("Parameter store compacted " + segmentIds.size() + " segments into " + keptParams + " params");
+    }
+
+    /**
+     * Makes the creation, renaming and deletion of segment files durable. Not every platform can sync a directory,
+     * the files themselves are synced either way.
+     */
+    private static void syncDirectory() {
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened as files on some platforms.
+        }
+    }
+
+    private static Path segmentPath(long segmentId) {
+        return directory.resolve(SEGMENT_PREFIX + formatSegmentId(segmentId) + SEGMENT_SUFFIX);
+    }
+
+    private static String formatSegmentId(long segmentId) {
+        return String.format("%020d", segmentId);
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The params_info.html page, which shows the latest value of every param stored in the ParamStore.
+ * The page is rendered from memory: its template is read from the root directory once, when the server starts,
+ * and split around the params table, so serving the page only fills the rows in from the store index, without any
+ * disk I/O. The rendered page is kept until the store changes.
+ */
+public class ParamsPage {
+    private static final String PAGE_NAME = "params_info.html";
+    private static final String TABLE_HEADER_ROW = " <tr><th>Parameter Name</th><th>Parameter Value</th></tr>\n";
+    private static final String DEFAULT_TEMPLATE = "<!DOCTYPE html>\n"
+            + "<html lang=\"en\">\n"
+            + "<head>\n"
+            + "    <title>Parameters Information</title>\n"
+            + "    <LINK rel=\"icon\" type=\"image/x-icon\">\n"
+            + "</head>\n"
+            + "<body>\n"
+            + "<h1>Parameters Information</h1>\n"
+            + "<table>\n"
+            + "</table>\n"
+            + "</body>\n"
+            + "</html>\n";
+
+    private static volatile Path pagePath = null;
+    // The template without its table rows, split where the rows go.
+    private static volatile String templateHead = "";
+    private static volatile String templateTail = "";
+    private static volatile RenderedPage latest = null;
+
+    private ParamsPage() {
+    }
+
+    /**
+     * Reads the template from the root directory, or falls back to a built-in one if the root has no
+     * params_info.html. The rows the template file holds are dropped, the page starts without params.
+     *
+     * @param serverConfig - the server configuration, for the root directory
+     */
+    public static void load(ServerConfiguration serverConfig) {
+        Path templatePath = serverConfig.getRoot().resolve(PAGE_NAME);
+        String template = DEFAULT_TEMPLATE;
+
+        try {
+            if (Files.isRegularFile(templatePath)) {
+                template = Files.readString(templatePath, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading the params_info.html template, using the built-in one: " + e.getMessage());
+        }
+
+        splitTemplate(template);
+        pagePath = templatePath;
+    }
+
+    /**
+     * Drops the lines between the &lt;table&gt; and &lt;/table&gt; lines of the template and splits it there.
+     *
+     * @param template - the content of the template file
+     */
+    private static void splitTemplate(String template) {
+        StringBuilder head = new StringBuilder();
+        StringBuilder tail = new StringBuilder();
+        StringBuilder current = head;
+        boolean isInTable = false;
+
+        for (String line : template.split("\n", -1)) {
+            if (line.startsWith("</table>") && current == head) {
+                current = tail;
+                isInTable = false;
+            }
+
+            if (!isInTable) {
+                current.append(line).append('\n');
+            }
+
+            if (line.startsWith("<table>")) {
+                isInTable = true;
+            }
+        }
+
+        // split() leaves an empty last element after the final line break, which added one line break too many.
+        tail.setLength(Math.max(0, tail.length() - 1));
+
+        if (current == head) {
+            // A template without a table gets the rows at its end.
+            templateHead = head.substring(0, Math.max(0, head.length() - 1));
+            templateTail = "";
+        } else {
+            templateHead = head.toString();
+            templateTail = tail.toString();
+        }
+    }
+
+    /**
+     * @param requestedPage - the path of a requested file
+     * @return true if the path is the params page, which is served from memory instead
+     */
+    public static boolean isParamsPage(Path requestedPage) {
+        return requestedPage.equals(pagePath);
+    }
+
+    /**
+     * @return the page with the stored params, rendered again only if params were stored since the last time
+     */
+    public static byte[] render() {
+        RenderedPage renderedPage = latest;
+        // Read before rendering, so params stored meanwhile make the next request render the page again.
+        long storeVersion = ParamStore.getVersion();
+
+        if (renderedPage == null || renderedPage.storeVersion != storeVersion) {
+            StringBuilder html = new StringBuilder(templateHead).append(TABLE_HEADER_ROW);
+
+            for (ParamStore.StoredParam param : ParamStore.getParams()) {
+                html.append("<tr><td>");
+                appendEscaped(html, param.getName());
+                html.append("</td><td>");
+                appendEscaped(html, param.getValue());
+                html.append("</td></tr>\n");
+            }
+
+            // Rendering twice in a race is harmless, both threads produce a page that is current for its version.
+            renderedPage = new RenderedPage(storeVersion, html.append(templateTail).toString().getBytes(StandardCharsets.UTF_8));
+            latest = renderedPage;
+        }
+
+        return renderedPage.page;
+    }
+
+    /**
+     * Appends text to the page with the characters that HTML would interpret escaped, so a submitted param cannot
+     * inject markup or scripts into the page, which every later visitor of it would run.
+     *
+     * @param html - the page being rendered
+     * @param text - a param name or value, as submitted
+     */
+    private static void appendEscaped(StringBuilder html, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            switch (c) {
+                case '&':
+                    html.append("&amp;");
+                    break;
+                case '<':
+                    html.append("&lt;");
+                    break;
+                case '>':
+                    html.append("&gt;");
+                    break;
+                case '"':
+                    html.append("&quot;");
+                    break;
+                case '\'':
+                    html.append("&#39;");
+                    break;
+                default:
+                    html.append(c);
+            }
+        }
+    }
+
+    /**
+     * The page as rendered for one version of the store.
+     */
+    private static class RenderedPage {
+        private final long storeVersion;
+        private final byte[] page;
+
+        RenderedPage(long storeVersion, byte[] page) {
+            this.storeVersion = storeVersion;
+            this.page = page;
+        }
+    }
+}
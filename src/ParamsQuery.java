@@ -0,0 +1,211 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only JSON API over the ParamStore, served at /api/params. It returns the latest value of the stored params
+ * by exact name ("key"), by name prefix ("prefix") or by submission time range ("from" inclusive, "to" exclusive,
+ * in milliseconds since the epoch), a name lookup can be narrowed by the time range too.
+ * Name lookups are sorted by name, time range lookups by time. Every lookup walks a sorted range of the store
+ * indexes, and stops after a page of "limit" params; the response holds a "next" cursor to pass as "cursor" for
+ * the following page, or null on the last one. The JSON is streamed to the client as it is produced.
+ * The store keeps no history of a param, only its latest value and the time it was submitted, so the time range
+ * matches the params whose latest submission falls into it: a param submitted within the range and submitted again
+ * after it is not found. A HEAD request gets the header of the JSON response, without running the lookup.
+ */
+public class ParamsQuery {
+    public static final String QUERY_PATH = "api/params";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    private final String key;
+    private final String prefix;
+    private final long fromTimestamp;
+    private final long toTimestamp;
+    private final int pageSize;
+    private final String cursor;
+
+    private ParamsQuery(String key, String prefix, long fromTimestamp, long toTimestamp, int pageSize, String cursor) {
+        this.key = key;
+        this.prefix = prefix;
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+        this.pageSize = pageSize;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @param requestedPage - the path of a requested file
+     * @param root - the root directory
+     * @return true if the path is the query API, which is answered instead of a file
+     */
+    public static boolean isQueryPath(Path requestedPage, Path root) {
+        return requestedPage.equals(root.resolve(QUERY_PATH));
+    }
+
+    /**
+     * @param requestParams - the query params of the request
+     * @return the query, or null if a param is malformed, or both a key and a prefix are given
+     */
+    public static ParamsQuery parse(Map<String, String> requestParams) {
+        String key = requestParams.get("key");
+        String prefix = requestParams.get("prefix");
+
+        try {
+            long fromTimestamp = parseLong(requestParams.get("from"), Long.MIN_VALUE);
+            long toTimestamp = parseLong(requestParams.get("to"), Long.MAX_VALUE);
+            long pageSize = parseLong(requestParams.get("limit"), DEFAULT_PAGE_SIZE);
+
+            if ((key != null && prefix != null) || pageSize < 1) {
+                return null;
+            }
+
+            return new ParamsQuery(key, prefix, fromTimestamp, toTimestamp, (int) Math.min(pageSize, MAX_PAGE_SIZE), requestParams.get("cursor"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        return (value != null) ? Long.parseLong(value.trim()) : defaultValue;
+    }
+
+    /**
+     * Writes a page of the matching params as a JSON object with a "params" array and a "next" cursor.
+     *
+     * @param content - the response content
+     * @throws IOException if unable to write to the client
+     */
+    public void writeResults(OutputStream content) throws IOException {
+        Writer json = new BufferedWriter(new OutputStreamWriter(content, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        Iterator<ParamStore.StoredParam> matches = findMatches().iterator();
+        ParamStore.StoredParam lastWritten = null;
+        int written = 0;
+
+        json.write("{\"params\":[");
+
+        while (written < pageSize && matches.hasNext()) {
+            ParamStore.StoredParam param = matches.next();
+
+            // A name lookup only narrows by time while it walks the names.
+            if (param.getTimestamp() < fromTimestamp || param.getTimestamp() >= toTimestamp) {
+                continue;
+            }
+
+            if (written > 0) {
+                json.write(',');
+            }
+            json.write("{\"name\":");
+            writeString(json, param.getName());
+            json.write(",\"value\":");
+            writeString(json, param.getValue());
+            json.write(",\"timestamp\":" + param.getTimestamp() + "}");
+
+            lastWritten = param;
+            written++;
+        }
+
+        json.write("],\"next\":");
+        if (lastWritten != null && hasMoreMatches(matches)) {
+            writeString(json, (key == null && prefix == null) ? lastWritten.getTimestamp() + ":" + lastWritten.getName() : lastWritten.getName());
+        } else {
+            json.write("null");
+        }
+        json.write("}");
+        json.flush();
+    }
+
+    /**
+     * @return the params to walk, starting behind the cursor, in the order of the index that is walked
+     */
+    private Iterable<ParamStore.StoredParam> findMatches() {
+        if (key != null) {
+            ParamStore.StoredParam param = ParamStore.getParam(key);
+            return (param != null && cursor == null) ? List.of(param) : List.of();
+        }
+
+        if (prefix != null) {
+            Collection<ParamStore.StoredParam> params = (cursor != null)
+                    ? ParamStore.getParamsFrom(cursor, false)
+                    : ParamStore.getParamsFrom(prefix, true);
+
+            // The names with the prefix are a contiguous range of the sorted names.
+            return () -> new Iterator<>() {
+                private final Iterator<ParamStore.StoredParam> names = params.iterator();
+                private ParamStore.StoredParam next = advance();
+
+                private ParamStore.StoredParam advance() {
+                    ParamStore.StoredParam param = names.hasNext() ? names.next() : null;
+                    return (param != null && param.getName().startsWith(prefix)) ? param : null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public ParamStore.StoredParam next() {
+                    ParamStore.StoredParam current = next;
+                    next = advance();
+                    return current;
+                }
+            };
+        }
+
+        int separatorIndex = (cursor != null) ? cursor.indexOf(':') : -1;
+        if (separatorIndex > 0) {
+            try {
+                long cursorTimestamp = Long.parseLong(cursor.substring(0, separatorIndex));
+
+                if (cursorTimestamp >= fromTimestamp) {
+                    return ParamStore.getParamsByTime(cursorTimestamp, cursor.substring(separatorIndex + 1), toTimestamp);
+                }
+            } catch (NumberFormatException e) {
+                return List.of();
+            }
+        }
+
+        return ParamStore.getParamsByTime(fromTimestamp, null, toTimestamp);
+    }
+
+    private boolean hasMoreMatches(Iterator<ParamStore.StoredParam> matches) {
+        while (matches.hasNext()) {
+            ParamStore.StoredParam param = matches.next();
+
+            if (param.getTimestamp() >= fromTimestamp && param.getTimestamp() < toTimestamp) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static void writeString(Writer json, String value) throws IOException {
+        json.write('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                json.write('\\');
+                json.write(c);
+            } else if (c < ' ') {
+                json.write(String.format("\\u%04x", (int) c));
+            } else {
+                json.write(c);
+            }
+        }
+
+        json.write('"');
+    }
+}
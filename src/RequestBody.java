@@ -0,0 +1,229 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The entity body of a request, exposed to the handlers as a stream.
+ * Bodies up to the spill threshold are kept in memory. Larger ones are written to a temporary file as their bytes
+ * arrive, so a request never holds more than the threshold of heap, however large its body is.
+ * The temporary file is deleted once the request was answered.
+ */
+public class RequestBody {
+    private static final RequestBody EMPTY = new RequestBody(new byte[0], null, 0);
+
+    private final byte[] content;
+    private final Path spillFile;
+    private final long length;
+
+    private RequestBody(byte[] content, Path spillFile, long length) {
+        this.content = content;
+        this.spillFile = spillFile;
+        this.length = length;
+    }
+
+    /**
+     * @return the body of a request without one
+     */
+    public static RequestBody empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return the number of bytes of the body
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return true if the body was written to a temporary file
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * @return a new stream over the bytes of the body
+     * @throws IOException if unable to open the temporary file
+     */
+    public InputStream openStream() throws IOException {
+        if (spillFile != null) {
+            return Files.newInputStream(spillFile);
+        }
+
+        return new ByteArrayInputStream(content, 0, (int) length);
+    }
+
+    /**
+     * @return the body decoded as UTF-8 text
+     * @throws IOException if unable to read the temporary file
+     */
+    public String asString() throws IOException {
+        if (spillFile != null) {
+            return Files.readString(spillFile, StandardCharsets.UTF_8);
+        }
+
+        return new String(content, 0, (int) length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes the temporary file of a spilled body, the body must not be read afterwards.
+     */
+    public void delete() {
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                System.out.println("Error deleting request body file: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Collects the bytes of a body as they are received from the client.
+     * The body goes to memory if its declared length is within the spill threshold, and to a temporary file otherwise.
+     * A body of unknown length, i.e. a chunked one, starts in memory and moves to a temporary file once it grows
+     * beyond the spill threshold. The memory grows with the bytes that arrived rather than with the declared length,
+     * so a client that declares a large body and sends little of it does not get the whole length allocated.
+     */
+    public static class Receiver {
+        public static final long UNKNOWN_LENGTH = -1;
+        private static final int INITIAL_UNKNOWN_LENGTH_CAPACITY = 1024;
+        private static final int MAX_INITIAL_CAPACITY = 65536;
+
+        private final long expectedLength;
+        private final int spillThreshold;
+        private byte[] content;
+        private Path spillFile;
+        private FileChannel spillChannel;
+        private long received = 0;
+
+        /**
+         * @param expectedLength - the declared length of the body, or UNKNOWN_LENGTH
+         * @param spillThreshold - the largest body kept in memory, in bytes
+         * @throws IOException if unable to create the temporary file
+         */
+        public Receiver(long expectedLength, int spillThreshold) throws IOException {
+            this.expectedLength = expectedLength;
+            this.spillThreshold = spillThreshold;
+
+            if (expectedLength == UNKNOWN_LENGTH) {
+                content = new byte[Math.min(INITIAL_UNKNOWN_LENGTH_CAPACITY, spillThreshold)];
+            } else if (expectedLength <= spillThreshold) {
+                content = new byte[(int) Math.min(expectedLength, MAX_INITIAL_CAPACITY)];
+            } else {
+                spill();
+            }
+        }
+
+        /**
+         * @return the number of bytes still missing, Long.MAX_VALUE if the length of the body is unknown
+         */
+        public long remaining() {
+            return (expectedLength == UNKNOWN_LENGTH) ? Long.MAX_VALUE : expectedLength - received;
+        }
+
+        /**
+         * Adds received bytes to the body. Bytes beyond the declared length are ignored.
+         *
+         * @param bytes - the received bytes
+         * @param offset - the index of the first byte
+         * @param count - the number of bytes
+         * @return the number of bytes that belonged to the body
+         * @throws IOException if unable to write to the temporary file
+         */
+        public int write(byte[] bytes, int offset, int count) throws IOException {
+            return write(ByteBuffer.wrap(bytes, offset, count));
+        }
+
+        /**
+         * Adds the readable bytes of a buffer to the body. Bytes beyond the declared length are left in the buffer.
+         *
+         * @param data - a buffer in read mode
+         * @return the number of bytes that belonged to the body
+         * @throws IOException if unable to write to the temporary file
+         */
+        public int write(ByteBuffer data) throws IOException {
+            int count = (int) Math.min(remaining(), data.remaining());
+            ByteBuffer bodyBytes = data.slice();
+            bodyBytes.limit(count);
+
+            if (spillChannel == null && received + count > content.length) {
+                growOrSpill(received + count);
+            }
+
+            if (spillChannel != null) {
+                while (bodyBytes.hasRemaining()) {
+                    spillChannel.write(bodyBytes);
+                }
+            } else {
+                bodyBytes.get(content, (int) received, count);
+            }
+
+            data.position(data.position() + count);
+            received += count;
+            return count;
+        }
+
+        /**
+         * Makes room for more bytes of the body, in memory up to the spill threshold, in a temporary file beyond.
+         *
+         * @param neededLength - the number of bytes the body needs room for
+         * @throws IOException if unable to create or write the temporary file
+         */
+        private void growOrSpill(long neededLength) throws IOException {
+            if (neededLength <= spillThreshold) {
+                long maxLength = (expectedLength == UNKNOWN_LENGTH) ? spillThreshold : expectedLength;
+                content = Arrays.copyOf(content, (int) Math.min(Math.max(neededLength, content.length * 2L), maxLength));
+                return;
+            }
+
+            ByteBuffer receivedBytes = ByteBuffer.wrap(content, 0, (int) received);
+            spill();
+
+            while (receivedBytes.hasRemaining()) {
+                spillChannel.write(receivedBytes);
+            }
+            content = null;
+        }
+
+        private void spill() throws IOException {
+            spillFile = Files.createTempFile("request-body-", ".tmp");
+            spillChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * @return the body made of the bytes received so far
+         * @throws IOException if unable to close the temporary file
+         */
+        public RequestBody finish() throws IOException {
+            if (spillChannel != null) {
+                spillChannel.close();
+            }
+
+            return new RequestBody(content, spillFile, received);
+        }
+
+        /**
+         * Drops a body that will not be handled, deleting its temporary file.
+         */
+        public void abort() {
+            try {
+                if (spillChannel != null) {
+                    spillChannel.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Error closing resources: " + e.getMessage());
+            }
+
+            new RequestBody(content, spillFile, received).delete();
+        }
+    }
+}
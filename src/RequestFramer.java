@@ -0,0 +1,459 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Accumulates the bytes a non-blocking engine reads from a client and cuts them into complete HTTP requests.
+ * A request is complete once its header block (terminated by an empty line) and its entity body were received:
+ * Content-Length bytes of it, or the chunks up to the last one for a body sent with "Transfer-Encoding: chunked".
+ * The body is framed whatever the method, even where the server has no use for it, as its bytes would otherwise be
+ * taken for the next request on the connection. The header block is parsed by an HTTPRequestParser as its bytes arrive, so it is
+ * scanned only once, and the entity body goes to a RequestBody.Receiver. Its bytes arrive on the event loop, where
+ * writing a temporary file would stall every other connection of the loop, so bodies are kept in memory up to
+ * maxBodySize instead of being spilled. Only with an unlimited body size are the bodies above the spill threshold
+ * still written to a temporary file, as nothing else bounds the memory they would take.
+ * A request whose body is refused (see getRejectionStatus()) is handed over without reading its body, and the
+ * framer ignores everything the client sends after it, since the connection is closed once it was answered.
+ * The parser of a request travels with it to the worker that answers it, and comes back through recycle() once the
+ * request was answered, so a connection reuses a handful of parsers instead of allocating one per request.
+ * The static methods hold the body framing rules, which the blocking engine applies as well.
+ */
+public class RequestFramer {
+    public static final long CHUNKED = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte[] EMPTY_BUFFER = new byte[0];
+    // The largest body an array can hold.
+    private static final long MAX_IN_MEMORY_BODY_SIZE = Integer.MAX_VALUE - 8;
+
+    // Idle connections hold no buffer at all, it is allocated when bytes arrive.
+    private byte[] buffer = EMPTY_BUFFER;
+    private int size = 0;
+    private HTTPRequestParser headParser;
+    // Parsers of answered requests, reset and ready for the next ones.
+    private final ArrayDeque<HTTPRequestParser> spareParsers = new ArrayDeque<>();
+    private RequestBody.Receiver bodyReceiver = null;
+    private ChunkedDecoder chunkedDecoder = null;
+    private boolean isContinueDue = false;
+    private boolean isClosed = false;
+    private final ServerConfiguration serverConfig;
+    private final int bodySpillThreshold;
+    private final long maxBodySize;
+
+    /**
+     * @param serverConfig - the server configuration, for the request size limits and the body spill threshold
+     */
+    public RequestFramer(ServerConfiguration serverConfig) {
+        this.serverConfig = serverConfig;
+        this.headParser = new HTTPRequestParser(serverConfig);
+        this.maxBodySize = serverConfig.getMaxBodySize();
+        this.bodySpillThreshold = (maxBodySize > 0 && maxBodySize <= MAX_IN_MEMORY_BODY_SIZE)
+                ? (int) maxBodySize : serverConfig.getBodySpillThreshold();
+    }
+
+    /**
+     * A request that was fully received from the client.
+     */
+    public static class FramedRequest {
+        private final HTTPRequestParser requestHead;
+        private final RequestBody entityBody;
+        private final int rejectionStatus;
+
+        FramedRequest(HTTPRequestParser requestHead, RequestBody entityBody, int rejectionStatus) {
+            this.requestHead = requestHead;
+            this.entityBody = entityBody;
+            this.rejectionStatus = rejectionStatus;
+        }
+
+        /**
+         * @return the parsed request line and headers, invalid if the client sent a malformed head
+         */
+        public HTTPRequestParser getRequestHead() {
+            return requestHead;
+        }
+
+        /**
+         * @return the entity body, which has to be deleted once the request was handled or dropped
+         */
+        public RequestBody getEntityBody() {
+            return entityBody;
+        }
+
+        /**
+         * @return the error status to answer the request with instead of handling it, or 0 if it may be handled
+         */
+        public int getRejectionStatus() {
+            return rejectionStatus;
+        }
+    }
+
+    /**
+     * Appends the readable bytes of the given buffer to the bytes received so far.
+     * The bytes of an entity body that is being received go straight to its receiver.
+     *
+     * @param data - a buffer in read mode, it is fully consumed
+     * @throws IOException if unable to write a spilled entity body to its temporary file
+     */
+    public void append(ByteBuffer data) throws IOException {
+        if (isClosed) {
+            data.position(data.limit());
+            return;
+        }
+
+        // A chunked body is decoded from the buffer, since its framing bytes are interleaved with the data.
+        if (bodyReceiver != null && chunkedDecoder == null) {
+            bodyReceiver.write(data);
+        }
+
+        int length = data.remaining();
+        ensureCapacity(size + length);
+        data.get(buffer, size, length);
+        size += length;
+    }
+
+    /**
+     * @return true if no bytes are waiting to be framed into a request
+     */
+    public boolean isEmpty() {
+        return size == 0 && bodyReceiver == null;
+    }
+
+    /**
+     * @return true if the header block of the next request was received and its entity body is still incomplete
+     */
+    public boolean isReadingBody() {
+        return bodyReceiver != null && (chunkedDecoder != null || bodyReceiver.remaining() > 0);
+    }
+
+    /**
+     * Tells whether the client waits for a "100 Continue" interim response before it sends the entity body of the
+     * request being received. Returns true once per request, the caller then has to send the interim response.
+     *
+     * @return true if the interim response has to be sent now
+     */
+    public boolean pollContinue() {
+        boolean isDue = isContinueDue;
+        isContinueDue = false;
+        return isDue;
+    }
+
+    /**
+     * Removes the next complete request from the received bytes.
+     *
+     * @return the next complete request, or null if more bytes have to be read first
+     * @throws IOException if unable to write a spilled entity body to its temporary file
+     */
+    public FramedRequest poll() throws IOException {
+        if (isClosed) {
+            return null;
+        }
+
+        if (bodyReceiver == null) {
+            skipLeadingLineBreaks();
+            headParser.parse(buffer, 0, size);
+
+            // A malformed or too large head is handed over as is to be answered with 400, 414 or 431,
+            // and the connection is closed after it.
+            if (headParser.isInvalid()) {
+                return reject(RequestBody.empty(), headParser.getErrorStatus());
+            }
+
+            if (!headParser.isComplete()) {
+                return null;
+            }
+
+            HTTPHeaders headers = headParser.getHeaders();
+            int rejectionStatus = getRejectionStatus(headers, maxBodySize);
+            if (rejectionStatus != 0) {
+                return reject(RequestBody.empty(), rejectionStatus);
+            }
+
+            long bodyLength = getBodyLength(headers);
+            if (bodyLength == 0) {
+                return takeRequest(headParser.getHeadLength(), RequestBody.empty());
+            }
+
+            int headLength = headParser.getHeadLength();
+            isContinueDue = isContinueExpected(headers, headParser.getHttpVersion()) && size == headLength;
+
+            if (bodyLength == CHUNKED) {
+                chunkedDecoder = new ChunkedDecoder(maxBodySize);
+                bodyReceiver = new RequestBody.Receiver(RequestBody.Receiver.UNKNOWN_LENGTH, bodySpillThreshold);
+                discard(headLength);
+            } else {
+                bodyReceiver = new RequestBody.Receiver(bodyLength, bodySpillThreshold);
+                discard(headLength + bodyReceiver.write(buffer, headLength, size - headLength));
+            }
+        }
+
+        if (chunkedDecoder != null) {
+            discard(chunkedDecoder.decode(buffer, 0, size, bodyReceiver));
+
+            if (chunkedDecoder.isInvalid() || chunkedDecoder.isTooLarge()) {
+                bodyReceiver.abort();
+                bodyReceiver = null;
+                return reject(RequestBody.empty(), chunkedDecoder.isInvalid() ? 400 : 413);
+            }
+
+            if (!chunkedDecoder.isComplete()) {
+                return null;
+            }
+            chunkedDecoder = null;
+        } else if (bodyReceiver.remaining() > 0) {
+            return null;
+        }
+
+        RequestBody entityBody = bodyReceiver.finish();
+        bodyReceiver = null;
+        return takeRequest(0, entityBody);
+    }
+
+    /**
+     * Drops the request that is being received, deleting the temporary file of its entity body.
+     * Called when the connection is closed.
+     */
+    public void release() {
+        if (bodyReceiver != null) {
+            bodyReceiver.abort();
+            bodyReceiver = null;
+        }
+    }
+
+    /**
+     * Takes back the parsers of requests that were answered, to parse the heads of the next ones.
+     * Must not be called before the requests are done with, nor while poll() runs.
+     *
+     * @param requests - requests polled from this framer, which were answered or dropped
+     */
+    public void recycle(List<FramedRequest> requests) {
+        for (FramedRequest request : requests) {
+            HTTPRequestParser parser = request.getRequestHead();
+            parser.reset();
+            spareParsers.push(parser);
+        }
+    }
+
+    /**
+     * Deletes the entity bodies of requests that were framed but will not be handled.
+     *
+     * @param requests - framed requests
+     * @param fromIndex - the index of the first request that will not be handled
+     */
+    public static void releaseBodies(List<FramedRequest> requests, int fromIndex) {
+        for (int i = fromIndex; i < requests.size(); i++) {
+            requests.get(i).getEntityBody().delete();
+        }
+    }
+
+    private FramedRequest takeRequest(int bytesToDiscard, RequestBody entityBody) {
+        FramedRequest framedRequest = new FramedRequest(headParser, entityBody, 0);
+        discard(bytesToDiscard);
+        headParser = nextHeadParser();
+
+        return framedRequest;
+    }
+
+    /**
+     * Hands over a request that is answered with an error without being handled, and drops whatever was
+     * received after its head, as the connection is closed after the answer.
+     *
+     * @param entityBody - the entity body received so far
+     * @param rejectionStatus - the error status to answer with
+     * @return the rejected request
+     */
+    private FramedRequest reject(RequestBody entityBody, int rejectionStatus) {
+        FramedRequest rejectedRequest = new FramedRequest(headParser, entityBody, rejectionStatus);
+        discard(size);
+        headParser = nextHeadParser();
+        chunkedDecoder = null;
+        isContinueDue = false;
+        isClosed = true;
+
+        return rejectedRequest;
+    }
+
+    private HTTPRequestParser nextHeadParser() {
+        HTTPRequestParser spareParser = spareParsers.poll();
+        return (spareParser != null) ? spareParser : new HTTPRequestParser(serverConfig);
+    }
+
+    /**
+     * Skips the line breaks some clients send after an entity body, before the next request line,
+     * so that a connection holding nothing else counts as idle.
+     */
+    private void skipLeadingLineBreaks() {
+        int lineBreaks = 0;
+
+        while (lineBreaks < size && (buffer[lineBreaks] == '\r' || buffer[lineBreaks] == '\n')) {
+            lineBreaks++;
+        }
+
+        if (lineBreaks > 0 && !headParser.hasStarted()) {
+            discard(lineBreaks);
+        }
+    }
+
+    /**
+     * Determines how the entity body of a request is framed, whatever its method: a body the server has no use
+     * for still has to be read, so that it is not taken for the next request on the connection.
+     * The framing headers must have passed getRejectionStatus().
+     *
+     * @param headers - the request headers
+     * @return the Content-Length of the body, CHUNKED for a chunked body, or 0 if the request has no entity body
+     */
+    public static long getBodyLength(HTTPHeaders headers) {
+        if (headers.contains(HTTPHeaders.TRANSFER_ENCODING)) {
+            return CHUNKED;
+        }
+
+        return Math.max(0, getContentLength(headers));
+    }
+
+    /**
+     * Checks the headers that announce the entity body of a request, before any of the body is read, so that
+     * a body the server would refuse is never received.
+     * The headers that frame the body must leave no doubt about where the request ends, whatever its method: a proxy
+     * in front of the server that reads them differently would let a client smuggle a request past it. So a request
+     * with both Transfer-Encoding and Content-Length, with Content-Length values that differ or do not parse, or with
+     * transfer codings that do not end with a single chunked, is refused with 400 (RFC 7230, section 3.3.3).
+     *
+     * @param headers - the request headers
+     * @param maxBodySize - the largest body accepted, in bytes, 0 for no limit
+     * @return 400 for ambiguous body framing, 417 for an expectation other than "100-continue", 501 for transfer
+     * codings in front of chunked, which the server does not decode, 413 for a Content-Length above the limit,
+     * or 0 if the body may be read
+     */
+    public static int getRejectionStatus(HTTPHeaders headers, long maxBodySize) {
+        boolean hasTransferEncoding = headers.contains(HTTPHeaders.TRANSFER_ENCODING);
+        boolean hasContentLength = headers.contains(HTTPHeaders.CONTENT_LENGTH);
+
+        if (hasTransferEncoding && hasContentLength) {
+            return 400;
+        }
+
+        List<String> transferCodings = hasTransferEncoding ? getTransferCodings(headers) : List.of();
+        int chunkedIndex = transferCodings.indexOf("chunked");
+        if (hasTransferEncoding && (chunkedIndex < 0 || chunkedIndex != transferCodings.size() - 1)) {
+            return 400;
+        }
+
+        long contentLength = hasContentLength ? getContentLength(headers) : 0;
+        if (contentLength < 0) {
+            return 400;
+        }
+
+        if (headers.contains(HTTPHeaders.EXPECT) && !headers.get(HTTPHeaders.EXPECT).equalsIgnoreCase("100-continue")) {
+            return 417;
+        }
+
+        if (transferCodings.size() > 1) {
+            return 501;
+        }
+
+        return (maxBodySize > 0 && contentLength > maxBodySize) ? 413 : 0;
+    }
+
+    /**
+     * @param headers - the request headers
+     * @return the Content-Length of the request, which every Content-Length header, and every element of a
+     * comma-separated one, has to agree on, -1 if they differ or one of them is not a number
+     */
+    private static long getContentLength(HTTPHeaders headers) {
+        if (headers.getCount(HTTPHeaders.CONTENT_LENGTH) == 1 && headers.get(HTTPHeaders.CONTENT_LENGTH).indexOf(',') < 0) {
+            return parseContentLength(headers.get(HTTPHeaders.CONTENT_LENGTH));
+        }
+
+        long contentLength = -1;
+        for (String value : headers.getAll(HTTPHeaders.CONTENT_LENGTH)) {
+            for (String element : value.split(",", -1)) {
+                long elementLength = parseContentLength(element.trim());
+
+                if (elementLength < 0 || (contentLength >= 0 && elementLength != contentLength)) {
+                    return -1;
+                }
+                contentLength = elementLength;
+            }
+        }
+
+        return contentLength;
+    }
+
+    /**
+     * @param value - a Content-Length value
+     * @return the length, or -1 if the value is not a non-negative decimal number
+     */
+    private static long parseContentLength(String value) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+
+        // Long.parseLong() would accept a sign as well, which Content-Length does not allow.
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return -1;
+            }
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param headers - the request headers
+     * @return the transfer codings of all the Transfer-Encoding headers, in the order they were applied, lower case
+     */
+    private static List<String> getTransferCodings(HTTPHeaders headers) {
+        List<String> transferCodings = new ArrayList<>();
+
+        for (String value : headers.getAll(HTTPHeaders.TRANSFER_ENCODING)) {
+            for (String coding : value.split(",")) {
+                // Parameters of a coding do not change which coding it is.
+                int parametersStart = coding.indexOf(';');
+                String codingName = ((parametersStart < 0) ? coding : coding.substring(0, parametersStart)).trim().toLowerCase();
+
+                if (!codingName.isEmpty()) {
+                    transferCodings.add(codingName);
+                }
+            }
+        }
+
+        return transferCodings;
+    }
+
+    /**
+     * @param headers - the request headers
+     * @param httpVersion - the HTTP version of the request
+     * @return true if the client waits for "100 Continue" before it sends the entity body
+     */
+    public static boolean isContinueExpected(HTTPHeaders headers, String httpVersion) {
+        // HTTP/1.0 clients do not understand interim responses (RFC 7231, section 5.1.1).
+        return httpVersion.equals("HTTP/1.1") && headers.get(HTTPHeaders.EXPECT).equalsIgnoreCase("100-continue")
+                && getBodyLength(headers) != 0;
+    }
+
+    /**
+     * Removes the given number of bytes from the beginning of the buffer.
+     *
+     * @param count - the number of bytes to remove
+     */
+    private void discard(int count) {
+        System.arraycopy(buffer, count, buffer, 0, size - count);
+        size -= count;
+
+        if (size == 0) {
+            buffer = EMPTY_BUFFER;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, Math.max(INITIAL_CAPACITY, buffer.length * 2)));
+        }
+    }
+}
@@ -2,6 +2,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Properties;
@@ -15,11 +17,96 @@ public class ServerConfiguration {
     private static final String DEFAULT_INDEX_PAGE = "index.html";
     private static final int DEFAULT_PORT = 8080;
     private static final int DEFAULT_MAX_THREADS = 10;
+    private static final String DEFAULT_ENGINE = "blocking";
+    private static final int DEFAULT_EVENT_LOOP_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final String DEFAULT_THREAD_MODE = "platform";
+    private static final int DEFAULT_KEEP_ALIVE_MAX_REQUESTS = 100;
+    private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5000;
+    private static final int DEFAULT_ACCEPTOR_THREADS = 1;
+    private static final int DEFAULT_METRICS_INTERVAL = 10;
+    private static final int DEFAULT_QUEUE_CAPACITY = 100;
+    private static final int DEFAULT_RETRY_AFTER = 1;
+    private static final int DEFAULT_QUEUE_TARGET_DELAY = 5;
+    private static final int DEFAULT_QUEUE_INTERVAL = 100;
+    private static final boolean DEFAULT_ADAPTIVE_LIFO = true;
+    private static final int DEFAULT_BACKLOG = 50;
+    private static final boolean DEFAULT_TCP_NO_DELAY = false;
+    private static final int DEFAULT_RECEIVE_BUFFER_SIZE = 0;
+    private static final int DEFAULT_SEND_BUFFER_SIZE = 0;
+    private static final boolean DEFAULT_SO_KEEP_ALIVE = false;
+    private static final String DEFAULT_BIND_ADDRESS = "";
+    private static final int DEFAULT_SO_LINGER = -1;
+    private static final int DEFAULT_HEADER_READ_TIMEOUT = 10000;
+    private static final int DEFAULT_BODY_READ_TIMEOUT = 30000;
+    private static final int DEFAULT_WRITE_TIMEOUT = 30000;
+    private static final int DEFAULT_REQUEST_DEADLINE = 60000;
+    private static final int DEFAULT_SHUTDOWN_GRACE_PERIOD = 30000;
+    private static final int DEFAULT_ADMIN_PORT = 0;
+    private static final int DEFAULT_BODY_SPILL_THRESHOLD = 65536;
+    // 0 lifts the limit, which has to be asked for explicitly.
+    private static final long DEFAULT_MAX_BODY_SIZE = 8388608;
+    private static final int DEFAULT_MAX_REQUEST_LINE_LENGTH = 8192;
+    private static final int DEFAULT_MAX_HEADER_SIZE = 65536;
+    private static final int DEFAULT_MAX_HEADER_COUNT = 100;
+    private static final int DEFAULT_MAX_PARAM_COUNT = 1000;
+    private static final int DEFAULT_MAX_PARAM_KEY_LENGTH = 256;
+    private static final boolean DEFAULT_BUFFER_LEAK_DETECTION = false;
+    private static final Path DEFAULT_UPLOAD_DIRECTORY = Paths.get(System.getProperty("user.home"), "/www/lab/uploads/");
+    private static final Path DEFAULT_PARAM_STORE_DIRECTORY = Paths.get(System.getProperty("user.home"), "/www/lab/params/");
+    private static final long DEFAULT_PARAM_STORE_SEGMENT_SIZE = 16777216;
+    private static final int DEFAULT_PARAM_STORE_COMPACTION_INTERVAL = 300;
+    private static final int DEFAULT_PARAM_STORE_MAX_PARAMS = 100000;
+    private static final long DEFAULT_FILE_TRANSFER_THRESHOLD = 8192;
+    // Smaller files are read into memory, so the threshold bounds the memory a file response takes.
+    private static final long MAX_FILE_TRANSFER_THRESHOLD = 1048576;
+    private static final long DEFAULT_STATIC_CACHE_SIZE = 33554432;
+    private static final int DEFAULT_STATIC_CACHE_VALIDITY = 1000;
 
     private int port = DEFAULT_PORT;
     private int maxThreads = DEFAULT_MAX_THREADS;
     private Path root = DEFAULT_ROOT;
     private String defaultPage = DEFAULT_ROOT.resolve(DEFAULT_INDEX_PAGE).toString();
+    private String engine = DEFAULT_ENGINE;
+    private int eventLoopThreads = DEFAULT_EVENT_LOOP_THREADS;
+    private String threadMode = DEFAULT_THREAD_MODE;
+    private int keepAliveMaxRequests = DEFAULT_KEEP_ALIVE_MAX_REQUESTS;
+    private int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    private int acceptorThreads = DEFAULT_ACCEPTOR_THREADS;
+    private int metricsInterval = DEFAULT_METRICS_INTERVAL;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int retryAfter = DEFAULT_RETRY_AFTER;
+    private int queueTargetDelay = DEFAULT_QUEUE_TARGET_DELAY;
+    private int queueInterval = DEFAULT_QUEUE_INTERVAL;
+    private boolean adaptiveLifo = DEFAULT_ADAPTIVE_LIFO;
+    private int backlog = DEFAULT_BACKLOG;
+    private boolean tcpNoDelay = DEFAULT_TCP_NO_DELAY;
+    private int receiveBufferSize = DEFAULT_RECEIVE_BUFFER_SIZE;
+    private int sendBufferSize = DEFAULT_SEND_BUFFER_SIZE;
+    private boolean soKeepAlive = DEFAULT_SO_KEEP_ALIVE;
+    private String bindAddress = DEFAULT_BIND_ADDRESS;
+    private int soLinger = DEFAULT_SO_LINGER;
+    private int headerReadTimeout = DEFAULT_HEADER_READ_TIMEOUT;
+    private int bodyReadTimeout = DEFAULT_BODY_READ_TIMEOUT;
+    private int writeTimeout = DEFAULT_WRITE_TIMEOUT;
+    private int requestDeadline = DEFAULT_REQUEST_DEADLINE;
+    private int shutdownGracePeriod = DEFAULT_SHUTDOWN_GRACE_PERIOD;
+    private int adminPort = DEFAULT_ADMIN_PORT;
+    private int bodySpillThreshold = DEFAULT_BODY_SPILL_THRESHOLD;
+    private long maxBodySize = DEFAULT_MAX_BODY_SIZE;
+    private int maxRequestLineLength = DEFAULT_MAX_REQUEST_LINE_LENGTH;
+    private int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+    private int maxHeaderCount = DEFAULT_MAX_HEADER_COUNT;
+    private int maxParamCount = DEFAULT_MAX_PARAM_COUNT;
+    private int maxParamKeyLength = DEFAULT_MAX_PARAM_KEY_LENGTH;
+    private Path uploadDirectory = DEFAULT_UPLOAD_DIRECTORY;
+    private boolean bufferLeakDetection = DEFAULT_BUFFER_LEAK_DETECTION;
+    private Path paramStoreDirectory = DEFAULT_PARAM_STORE_DIRECTORY;
+    private long paramStoreSegmentSize = DEFAULT_PARAM_STORE_SEGMENT_SIZE;
+    private int paramStoreCompactionInterval = DEFAULT_PARAM_STORE_COMPACTION_INTERVAL;
+    private int paramStoreMaxParams = DEFAULT_PARAM_STORE_MAX_PARAMS;
+    private long fileTransferThreshold = DEFAULT_FILE_TRANSFER_THRESHOLD;
+    private long staticCacheSize = DEFAULT_STATIC_CACHE_SIZE;
+    private int staticCacheValidity = DEFAULT_STATIC_CACHE_VALIDITY;
 
     /**
      * Constructs a ServerConfiguration object with default settings.
@@ -49,7 +136,8 @@ public class ServerConfiguration {
 
     public void setRoot(String root) {
         if (!root.isEmpty()) {
-            this.root = Paths.get(root);
+            // Normalized like the requested paths, which are checked to start with it.
+            this.root = Paths.get(root).normalize();
         } else {
             throw new IllegalArgumentException("Missing root path!");
         }
@@ -79,6 +167,585 @@ public class ServerConfiguration {
         }
     }
 
+    public String getEngine() {
+        return engine;
+    }
+
+    private void setEngine(String engine) {
+        if (engine.equalsIgnoreCase("blocking") || engine.equalsIgnoreCase("nio") || engine.equalsIgnoreCase("async")) {
+            this.engine = engine.toLowerCase();
+        } else {
+            throw new IllegalArgumentException("Unknown engine (must be blocking, nio or async).");
+        }
+    }
+
+    /**
+     * @return the number of selector threads of the nio engine, and of channel group threads of the async engine
+     */
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    private void setEventLoopThreads(int eventLoopThreads) {
+        if (eventLoopThreads >= 1) {
+            this.eventLoopThreads = eventLoopThreads;
+        } else {
+            throw new IllegalArgumentException("Illegal number of event loop threads (must be at least 1).");
+        }
+    }
+
+    public String getThreadMode() {
+        return threadMode;
+    }
+
+    private void setThreadMode(String threadMode) {
+        if (threadMode.equalsIgnoreCase("platform") || threadMode.equalsIgnoreCase("virtual")) {
+            this.threadMode = threadMode.toLowerCase();
+        } else {
+            throw new IllegalArgumentException("Unknown thread mode (must be platform or virtual).");
+        }
+    }
+
+    public int getKeepAliveMaxRequests() {
+        return keepAliveMaxRequests;
+    }
+
+    private void setKeepAliveMaxRequests(int keepAliveMaxRequests) {
+        if (keepAliveMaxRequests >= 1) {
+            this.keepAliveMaxRequests = keepAliveMaxRequests;
+        } else {
+            throw new IllegalArgumentException("Illegal number of requests per connection (must be at least 1).");
+        }
+    }
+
+    /**
+     * @return how long, in milliseconds, an idle persistent connection waits for its next request
+     */
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    private void setKeepAliveTimeout(int keepAliveTimeout) {
+        if (keepAliveTimeout >= 1) {
+            this.keepAliveTimeout = keepAliveTimeout;
+        } else {
+            throw new IllegalArgumentException("Illegal keep-alive timeout (must be at least 1 millisecond).");
+        }
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    private void setAcceptorThreads(int acceptorThreads) {
+        if (acceptorThreads >= 1) {
+            this.acceptorThreads = acceptorThreads;
+        } else {
+            throw new IllegalArgumentException("Illegal number of acceptor threads (must be at least 1).");
+        }
+    }
+
+    /**
+     * @return the interval, in seconds, between two metrics reports (0 disables the report)
+     */
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    private void setMetricsInterval(int metricsInterval) {
+        if (metricsInterval >= 0) {
+            this.metricsInterval = metricsInterval;
+        } else {
+            throw new IllegalArgumentException("Illegal metrics interval (must not be negative).");
+        }
+    }
+
+    /**
+     * @return how many accepted connections may wait for a worker thread before new ones are rejected with 503
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    private void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity >= 1) {
+            this.queueCapacity = queueCapacity;
+        } else {
+            throw new IllegalArgumentException("Illegal queue capacity (must be at least 1).");
+        }
+    }
+
+    /**
+     * @return the Retry-After value, in seconds, of the 503 responses sent under overload
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    private void setRetryAfter(int retryAfter) {
+        if (retryAfter >= 0) {
+            this.retryAfter = retryAfter;
+        } else {
+            throw new IllegalArgumentException("Illegal Retry-After value (must not be negative).");
+        }
+    }
+
+    /**
+     * @return the queueing delay, in milliseconds, that connections should not exceed under sustained load
+     */
+    public int getQueueTargetDelay() {
+        return queueTargetDelay;
+    }
+
+    private void setQueueTargetDelay(int queueTargetDelay) {
+        if (queueTargetDelay >= 1) {
+            this.queueTargetDelay = queueTargetDelay;
+        } else {
+            throw new IllegalArgumentException("Illegal queue target delay (must be at least 1 millisecond).");
+        }
+    }
+
+    /**
+     * @return the interval, in milliseconds, over which the minimal queueing delay is compared to the target
+     */
+    public int getQueueInterval() {
+        return queueInterval;
+    }
+
+    private void setQueueInterval(int queueInterval) {
+        if (queueInterval >= 1) {
+            this.queueInterval = queueInterval;
+        } else {
+            throw new IllegalArgumentException("Illegal queue interval (must be at least 1 millisecond).");
+        }
+    }
+
+    public boolean isAdaptiveLifo() {
+        return adaptiveLifo;
+    }
+
+    /**
+     * @return the maximum length of the queue of connections the kernel accepted but the server did not yet
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    private void setBacklog(int backlog) {
+        if (backlog >= 1) {
+            this.backlog = backlog;
+        } else {
+            throw new IllegalArgumentException("Illegal accept backlog (must be at least 1).");
+        }
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * @return the SO_RCVBUF size in bytes, 0 keeps the operating system default
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    private void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize >= 0) {
+            this.receiveBufferSize = receiveBufferSize;
+        } else {
+            throw new IllegalArgumentException("Illegal receive buffer size (must not be negative).");
+        }
+    }
+
+    /**
+     * @return the SO_SNDBUF size in bytes, 0 keeps the operating system default
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    private void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize >= 0) {
+            this.sendBufferSize = sendBufferSize;
+        } else {
+            throw new IllegalArgumentException("Illegal send buffer size (must not be negative).");
+        }
+    }
+
+    public boolean isSoKeepAlive() {
+        return soKeepAlive;
+    }
+
+    /**
+     * @return the local address to listen on, empty to listen on all the addresses
+     */
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    private void setBindAddress(String bindAddress) {
+        if (!bindAddress.isEmpty()) {
+            try {
+                InetAddress.getByName(bindAddress);
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Unknown bind address: " + bindAddress);
+            }
+        }
+
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * @return the SO_LINGER timeout in seconds, -1 disables lingering
+     */
+    public int getSoLinger() {
+        return soLinger;
+    }
+
+    private void setSoLinger(int soLinger) {
+        if (-1 <= soLinger && soLinger <= 65535) {
+            this.soLinger = soLinger;
+        } else {
+            throw new IllegalArgumentException("Illegal SO_LINGER timeout (must be -1 or between 0 and 65535).");
+        }
+    }
+
+    /**
+     * @return how long, in milliseconds, a client may take to send the request line and headers
+     */
+    public int getHeaderReadTimeout() {
+        return headerReadTimeout;
+    }
+
+    private void setHeaderReadTimeout(int headerReadTimeout) {
+        if (headerReadTimeout >= 1) {
+            this.headerReadTimeout = headerReadTimeout;
+        } else {
+            throw new IllegalArgumentException("Illegal header read timeout (must be at least 1 millisecond).");
+        }
+    }
+
+    /**
+     * @return how long, in milliseconds, a client may take to send the entity body of a request
+     */
+    public int getBodyReadTimeout() {
+        return bodyReadTimeout;
+    }
+
+    private void setBodyReadTimeout(int bodyReadTimeout) {
+        if (bodyReadTimeout >= 1) {
+            this.bodyReadTimeout = bodyReadTimeout;
+        } else {
+            throw new IllegalArgumentException("Illegal body read timeout (must be at least 1 millisecond).");
+        }
+    }
+
+    /**
+     * @return how long, in milliseconds, a single socket write may block on a client that does not read
+     */
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    private void setWriteTimeout(int writeTimeout) {
+        if (writeTimeout >= 1) {
+            this.writeTimeout = writeTimeout;
+        } else {
+            throw new IllegalArgumentException("Illegal write timeout (must be at least 1 millisecond).");
+        }
+    }
+
+    /**
+     * @return how long, in milliseconds, a request may take from its first byte to its last response byte
+     */
+    public int getRequestDeadline() {
+        return requestDeadline;
+    }
+
+    private void setRequestDeadline(int requestDeadline) {
+        if (requestDeadline >= 1) {
+            this.requestDeadline = requestDeadline;
+        } else {
+            throw new IllegalArgumentException("Illegal request deadline (must be at least 1 millisecond).");
+        }
+    }
+
+    /**
+     * @return how long, in milliseconds, the requests in flight may take to complete once a shutdown started
+     */
+    public int getShutdownGracePeriod() {
+        return shutdownGracePeriod;
+    }
+
+    private void setShutdownGracePeriod(int shutdownGracePeriod) {
+        if (shutdownGracePeriod >= 0) {
+            this.shutdownGracePeriod = shutdownGracePeriod;
+        } else {
+            throw new IllegalArgumentException("Illegal shutdown grace period (must not be negative).");
+        }
+    }
+
+    /**
+     * @return the loopback port of the admin listener, 0 if it is disabled
+     */
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    private void setAdminPort(int adminPort) {
+        if (0 <= adminPort && adminPort <= 65535) {
+            this.adminPort = adminPort;
+        } else {
+            throw new IllegalArgumentException("Illegal admin port number!");
+        }
+    }
+
+    /**
+     * @return the largest request body kept in memory, in bytes, larger ones are written to a temporary file
+     */
+    public int getBodySpillThreshold() {
+        return bodySpillThreshold;
+    }
+
+    private void setBodySpillThreshold(int bodySpillThreshold) {
+        if (bodySpillThreshold >= 0) {
+            this.bodySpillThreshold = bodySpillThreshold;
+        } else {
+            throw new IllegalArgumentException("Illegal body spill threshold (must not be negative).");
+        }
+    }
+
+    /**
+     * @return the largest request body accepted, in bytes, 0 if the size is not limited
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    private void setMaxBodySize(long maxBodySize) {
+        if (maxBodySize >= 0) {
+            this.maxBodySize = maxBodySize;
+        } else {
+            throw new IllegalArgumentException("Illegal maximum body size (must not be negative).");
+        }
+    }
+
+    /**
+     * @return the longest request line accepted, in bytes, longer ones are answered with 414
+     */
+    public int getMaxRequestLineLength() {
+        return maxRequestLineLength;
+    }
+
+    private void setMaxRequestLineLength(int maxRequestLineLength) {
+        if (maxRequestLineLength >= 1) {
+            this.maxRequestLineLength = maxRequestLineLength;
+        } else {
+            throw new IllegalArgumentException("Illegal maximum request line length (must be positive).");
+        }
+    }
+
+    /**
+     * @return the largest request head accepted, request line and headers, in bytes, larger ones are answered with 431
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    private void setMaxHeaderSize(int maxHeaderSize) {
+        if (maxHeaderSize >= 1) {
+            this.maxHeaderSize = maxHeaderSize;
+        } else {
+            throw new IllegalArgumentException("Illegal maximum header size (must be positive).");
+        }
+    }
+
+    /**
+     * @return the largest number of headers accepted, more are answered with 431
+     */
+    public int getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    private void setMaxHeaderCount(int maxHeaderCount) {
+        if (maxHeaderCount >= 0) {
+            this.maxHeaderCount = maxHeaderCount;
+        } else {
+            throw new IllegalArgumentException("Illegal maximum header count (must not be negative).");
+        }
+    }
+
+    /**
+     * @return the largest number of params extracted from a request, further ones are ignored
+     */
+    public int getMaxParamCount() {
+        return maxParamCount;
+    }
+
+    private void setMaxParamCount(int maxParamCount) {
+        if (maxParamCount >= 1) {
+            this.maxParamCount = maxParamCount;
+        } else {
+            throw new IllegalArgumentException("Illegal maximum param count (must be positive).");
+        }
+    }
+
+    /**
+     * @return the longest param name accepted, params with longer names are ignored
+     */
+    public int getMaxParamKeyLength() {
+        return maxParamKeyLength;
+    }
+
+    private void setMaxParamKeyLength(int maxParamKeyLength) {
+        if (maxParamKeyLength >= 1) {
+            this.maxParamKeyLength = maxParamKeyLength;
+        } else {
+            throw new IllegalArgumentException("Illegal maximum param key length (must be positive).");
+        }
+    }
+
+    /**
+     * @return the directory the files of multipart/form-data uploads are written to
+     */
+    public Path getUploadDirectory() {
+        return uploadDirectory;
+    }
+
+    private void setUploadDirectory(String uploadDirectory) {
+        if (!uploadDirectory.isEmpty()) {
+            this.uploadDirectory = Paths.get(uploadDirectory);
+        } else {
+            throw new IllegalArgumentException("Missing upload directory path!");
+        }
+    }
+
+    /**
+     * @return true if the buffer pool reports the buffers that are never released, meant for debugging
+     */
+    public boolean isBufferLeakDetection() {
+        return bufferLeakDetection;
+    }
+
+    /**
+     * @return the directory holding the segments of the parameter store
+     */
+    public Path getParamStoreDirectory() {
+        return paramStoreDirectory;
+    }
+
+    private void setParamStoreDirectory(String paramStoreDirectory) {
+        if (!paramStoreDirectory.isEmpty()) {
+            this.paramStoreDirectory = Paths.get(paramStoreDirectory);
+        } else {
+            throw new IllegalArgumentException("Missing parameter store directory path!");
+        }
+    }
+
+    /**
+     * @return the size in bytes beyond which the active segment of the parameter store is sealed and a new one started
+     */
+    public long getParamStoreSegmentSize() {
+        return paramStoreSegmentSize;
+    }
+
+    private void setParamStoreSegmentSize(long paramStoreSegmentSize) {
+        if (paramStoreSegmentSize >= 4096) {
+            this.paramStoreSegmentSize = paramStoreSegmentSize;
+        } else {
+            throw new IllegalArgumentException("Illegal parameter store segment size (must be at least 4096 bytes).");
+        }
+    }
+
+    /**
+     * @return the seconds between two compactions of the parameter store, 0 disables compaction
+     */
+    public int getParamStoreCompactionInterval() {
+        return paramStoreCompactionInterval;
+    }
+
+    private void setParamStoreCompactionInterval(int paramStoreCompactionInterval) {
+        if (paramStoreCompactionInterval >= 0) {
+            this.paramStoreCompactionInterval = paramStoreCompactionInterval;
+        } else {
+            throw new IllegalArgumentException("Illegal parameter store compaction interval (must be 0 or more seconds).");
+        }
+    }
+
+    /**
+     * @return the maximal number of distinct param names the parameter store holds
+     */
+    public int getParamStoreMaxParams() {
+        return paramStoreMaxParams;
+    }
+
+    private void setParamStoreMaxParams(int paramStoreMaxParams) {
+        if (paramStoreMaxParams >= 1) {
+            this.paramStoreMaxParams = paramStoreMaxParams;
+        } else {
+            throw new IllegalArgumentException("Illegal parameter store param limit (must be at least 1).");
+        }
+    }
+
+    /**
+     * @return the size in bytes from which files are streamed from disk instead of being read into memory
+     */
+    public long getFileTransferThreshold() {
+        return fileTransferThreshold;
+    }
+
+    private void setFileTransferThreshold(long fileTransferThreshold) {
+        if (fileTransferThreshold >= 0 && fileTransferThreshold <= MAX_FILE_TRANSFER_THRESHOLD) {
+            this.fileTransferThreshold = fileTransferThreshold;
+        } else {
+            throw new IllegalArgumentException("Illegal file transfer threshold (must be between 0 and " + MAX_FILE_TRANSFER_THRESHOLD + " bytes).");
+        }
+    }
+
+    /**
+     * @return the maximal total size in bytes of the files kept in the static content cache, 0 if it is disabled
+     */
+    public long getStaticCacheSize() {
+        return staticCacheSize;
+    }
+
+    private void setStaticCacheSize(long staticCacheSize) {
+        if (staticCacheSize >= 0) {
+            this.staticCacheSize = staticCacheSize;
+        } else {
+            throw new IllegalArgumentException("Illegal static cache size (must be 0 or more bytes).");
+        }
+    }
+
+    /**
+     * @return the time in milliseconds a cached file is served without checking its modification time again
+     */
+    public int getStaticCacheValidity() {
+        return staticCacheValidity;
+    }
+
+    private void setStaticCacheValidity(int staticCacheValidity) {
+        if (staticCacheValidity >= 0) {
+            this.staticCacheValidity = staticCacheValidity;
+        } else {
+            throw new IllegalArgumentException("Illegal static cache validity (must be 0 or more milliseconds).");
+        }
+    }
+
+    /**
+     * @return a one line description of the socket options, for the startup log
+     */
+    public String describeSocketOptions() {
+        return "bindAddress=" + (bindAddress.isEmpty() ? "*" : bindAddress)
+                + ", backlog=" + backlog
+                + ", TCP_NODELAY=" + tcpNoDelay
+                + ", SO_RCVBUF=" + (receiveBufferSize > 0 ? receiveBufferSize : "default")
+                + ", SO_SNDBUF=" + (sendBufferSize > 0 ? sendBufferSize : "default")
+                + ", SO_KEEPALIVE=" + soKeepAlive
+                + ", SO_LINGER=" + (soLinger >= 0 ? soLinger : "off");
+    }
+
     public int getPort() {
         return port;
     }
@@ -129,6 +796,47 @@ public class ServerConfiguration {
             configFromFile.setRoot(properties.getProperty("root", DEFAULT_ROOT.toString()).trim());
             configFromFile.setDefaultPage(properties.getProperty("defaultPage", configFromFile.getDefaultPage()));
             configFromFile.setMaxThreads(Integer.parseInt(properties.getProperty("maxThreads", String.valueOf(DEFAULT_MAX_THREADS))));
+            configFromFile.setEngine(properties.getProperty("engine", DEFAULT_ENGINE).trim());
+            configFromFile.setEventLoopThreads(Integer.parseInt(properties.getProperty("eventLoopThreads", String.valueOf(DEFAULT_EVENT_LOOP_THREADS))));
+            configFromFile.setThreadMode(properties.getProperty("threadMode", DEFAULT_THREAD_MODE).trim());
+            configFromFile.setKeepAliveMaxRequests(Integer.parseInt(properties.getProperty("keepAliveMaxRequests", String.valueOf(DEFAULT_KEEP_ALIVE_MAX_REQUESTS))));
+            configFromFile.setKeepAliveTimeout(Integer.parseInt(properties.getProperty("keepAliveTimeout", String.valueOf(DEFAULT_KEEP_ALIVE_TIMEOUT))));
+            configFromFile.setAcceptorThreads(Integer.parseInt(properties.getProperty("acceptorThreads", String.valueOf(DEFAULT_ACCEPTOR_THREADS))));
+            configFromFile.setMetricsInterval(Integer.parseInt(properties.getProperty("metricsInterval", String.valueOf(DEFAULT_METRICS_INTERVAL))));
+            configFromFile.setQueueCapacity(Integer.parseInt(properties.getProperty("queueCapacity", String.valueOf(DEFAULT_QUEUE_CAPACITY))));
+            configFromFile.setRetryAfter(Integer.parseInt(properties.getProperty("retryAfter", String.valueOf(DEFAULT_RETRY_AFTER))));
+            configFromFile.setQueueTargetDelay(Integer.parseInt(properties.getProperty("queueTargetDelay", String.valueOf(DEFAULT_QUEUE_TARGET_DELAY))));
+            configFromFile.setQueueInterval(Integer.parseInt(properties.getProperty("queueInterval", String.valueOf(DEFAULT_QUEUE_INTERVAL))));
+            configFromFile.adaptiveLifo = parseBoolean("adaptiveLifo", properties.getProperty("adaptiveLifo", String.valueOf(DEFAULT_ADAPTIVE_LIFO)));
+            configFromFile.setBacklog(Integer.parseInt(properties.getProperty("backlog", String.valueOf(DEFAULT_BACKLOG))));
+            configFromFile.tcpNoDelay = parseBoolean("tcpNoDelay", properties.getProperty("tcpNoDelay", String.valueOf(DEFAULT_TCP_NO_DELAY)));
+            configFromFile.setReceiveBufferSize(Integer.parseInt(properties.getProperty("receiveBufferSize", String.valueOf(DEFAULT_RECEIVE_BUFFER_SIZE))));
+            configFromFile.setSendBufferSize(Integer.parseInt(properties.getProperty("sendBufferSize", String.valueOf(DEFAULT_SEND_BUFFER_SIZE))));
+            configFromFile.soKeepAlive = parseBoolean("soKeepAlive", properties.getProperty("soKeepAlive", String.valueOf(DEFAULT_SO_KEEP_ALIVE)));
+            configFromFile.setBindAddress(properties.getProperty("bindAddress", DEFAULT_BIND_ADDRESS).trim());
+            configFromFile.setSoLinger(Integer.parseInt(properties.getProperty("soLinger", String.valueOf(DEFAULT_SO_LINGER))));
+            configFromFile.setHeaderReadTimeout(Integer.parseInt(properties.getProperty("headerReadTimeout", String.valueOf(DEFAULT_HEADER_READ_TIMEOUT))));
+            configFromFile.setBodyReadTimeout(Integer.parseInt(properties.getProperty("bodyReadTimeout", String.valueOf(DEFAULT_BODY_READ_TIMEOUT))));
+            configFromFile.setWriteTimeout(Integer.parseInt(properties.getProperty("writeTimeout", String.valueOf(DEFAULT_WRITE_TIMEOUT))));
+            configFromFile.setRequestDeadline(Integer.parseInt(properties.getProperty("requestDeadline", String.valueOf(DEFAULT_REQUEST_DEADLINE))));
+            configFromFile.setShutdownGracePeriod(Integer.parseInt(properties.getProperty("shutdownGracePeriod", String.valueOf(DEFAULT_SHUTDOWN_GRACE_PERIOD))));
+            configFromFile.setAdminPort(Integer.parseInt(properties.getProperty("adminPort", String.valueOf(DEFAULT_ADMIN_PORT))));
+            configFromFile.setBodySpillThreshold(Integer.parseInt(properties.getProperty("bodySpillThreshold", String.valueOf(DEFAULT_BODY_SPILL_THRESHOLD))));
+            configFromFile.setMaxBodySize(Long.parseLong(properties.getProperty("maxBodySize", String.valueOf(DEFAULT_MAX_BODY_SIZE))));
+            configFromFile.setMaxRequestLineLength(Integer.parseInt(properties.getProperty("maxRequestLineLength", String.valueOf(DEFAULT_MAX_REQUEST_LINE_LENGTH))));
+            configFromFile.setMaxHeaderSize(Integer.parseInt(properties.getProperty("maxHeaderSize", String.valueOf(DEFAULT_MAX_HEADER_SIZE))));
+            configFromFile.setMaxHeaderCount(Integer.parseInt(properties.getProperty("maxHeaderCount", String.valueOf(DEFAULT_MAX_HEADER_COUNT))));
+            configFromFile.setMaxParamCount(Integer.parseInt(properties.getProperty("maxParamCount", String.valueOf(DEFAULT_MAX_PARAM_COUNT))));
+            configFromFile.setMaxParamKeyLength(Integer.parseInt(properties.getProperty("maxParamKeyLength", String.valueOf(DEFAULT_MAX_PARAM_KEY_LENGTH))));
+            configFromFile.setUploadDirectory(properties.getProperty("uploadDirectory", DEFAULT_UPLOAD_DIRECTORY.toString()).trim());
+            configFromFile.bufferLeakDetection = parseBoolean("bufferLeakDetection", properties.getProperty("bufferLeakDetection", String.valueOf(DEFAULT_BUFFER_LEAK_DETECTION)));
+            configFromFile.setParamStoreDirectory(properties.getProperty("paramStoreDirectory", DEFAULT_PARAM_STORE_DIRECTORY.toString()).trim());
+            configFromFile.setParamStoreSegmentSize(Long.parseLong(properties.getProperty("paramStoreSegmentSize", String.valueOf(DEFAULT_PARAM_STORE_SEGMENT_SIZE))));
+            configFromFile.setParamStoreCompactionInterval(Integer.parseInt(properties.getProperty("paramStoreCompactionInterval", String.valueOf(DEFAULT_PARAM_STORE_COMPACTION_INTERVAL))));
+            configFromFile.setParamStoreMaxParams(Integer.parseInt(properties.getProperty("paramStoreMaxParams", String.valueOf(DEFAULT_PARAM_STORE_MAX_PARAMS))));
+            configFromFile.setFileTransferThreshold(Long.parseLong(properties.getProperty("fileTransferThreshold", String.valueOf(DEFAULT_FILE_TRANSFER_THRESHOLD))));
+            configFromFile.setStaticCacheSize(Long.parseLong(properties.getProperty("staticCacheSize", String.valueOf(DEFAULT_STATIC_CACHE_SIZE))));
+            configFromFile.setStaticCacheValidity(Integer.parseInt(properties.getProperty("staticCacheValidity", String.valueOf(DEFAULT_STATIC_CACHE_VALIDITY))));
 
         } catch (IOException | NumberFormatException e) {
             System.out.println("Failed to generate config file");
@@ -145,6 +853,23 @@ public class ServerConfiguration {
         return configFromFile;
     }
 
+    /**
+     * Parses a boolean property, accepting only "true" or "false".
+     *
+     * @param propertyName - the name of the property, for the error message
+     * @param value - the property value
+     * @return the parsed value
+     */
+    private static boolean parseBoolean(String propertyName, String value) {
+        String trimmedValue = value.trim();
+
+        if (trimmedValue.equalsIgnoreCase("true") || trimmedValue.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(trimmedValue);
+        }
+
+        throw new IllegalArgumentException("Illegal value for " + propertyName + " (must be true or false).");
+    }
+
     /**
      * Generates a config.ini file in the root directory.
      */
@@ -156,6 +881,47 @@ public class ServerConfiguration {
         properties.setProperty("root", String.valueOf(this.root));
         properties.setProperty("defaultPage", this.defaultPage);
         properties.setProperty("maxThreads", String.valueOf(this.maxThreads));
+        properties.setProperty("engine", this.engine);
+        properties.setProperty("eventLoopThreads", String.valueOf(this.eventLoopThreads));
+        properties.setProperty("threadMode", this.threadMode);
+        properties.setProperty("keepAliveMaxRequests", String.valueOf(this.keepAliveMaxRequests));
+        properties.setProperty("keepAliveTimeout", String.valueOf(this.keepAliveTimeout));
+        properties.setProperty("acceptorThreads", String.valueOf(this.acceptorThreads));
+        properties.setProperty("metricsInterval", String.valueOf(this.metricsInterval));
+        properties.setProperty("queueCapacity", String.valueOf(this.queueCapacity));
+        properties.setProperty("retryAfter", String.valueOf(this.retryAfter));
+        properties.setProperty("queueTargetDelay", String.valueOf(this.queueTargetDelay));
+        properties.setProperty("queueInterval", String.valueOf(this.queueInterval));
+        properties.setProperty("adaptiveLifo", String.valueOf(this.adaptiveLifo));
+        properties.setProperty("backlog", String.valueOf(this.backlog));
+        properties.setProperty("tcpNoDelay", String.valueOf(this.tcpNoDelay));
+        properties.setProperty("receiveBufferSize", String.valueOf(this.receiveBufferSize));
+        properties.setProperty("sendBufferSize", String.valueOf(this.sendBufferSize));
+        properties.setProperty("soKeepAlive", String.valueOf(this.soKeepAlive));
+        properties.setProperty("bindAddress", this.bindAddress);
+        properties.setProperty("soLinger", String.valueOf(this.soLinger));
+        properties.setProperty("headerReadTimeout", String.valueOf(this.headerReadTimeout));
+        properties.setProperty("bodyReadTimeout", String.valueOf(this.bodyReadTimeout));
+        properties.setProperty("writeTimeout", String.valueOf(this.writeTimeout));
+        properties.setProperty("requestDeadline", String.valueOf(this.requestDeadline));
+        properties.setProperty("shutdownGracePeriod", String.valueOf(this.shutdownGracePeriod));
+        properties.setProperty("adminPort", String.valueOf(this.adminPort));
+        properties.setProperty("bodySpillThreshold", String.valueOf(this.bodySpillThreshold));
+        properties.setProperty("maxBodySize", String.valueOf(this.maxBodySize));
+        properties.setProperty("maxRequestLineLength", String.valueOf(this.maxRequestLineLength));
+        properties.setProperty("maxHeaderSize", String.valueOf(this.maxHeaderSize));
+        properties.setProperty("maxHeaderCount", String.valueOf(this.maxHeaderCount));
+        properties.setProperty("maxParamCount", String.valueOf(this.maxParamCount));
+        properties.setProperty("maxParamKeyLength", String.valueOf(this.maxParamKeyLength));
+        properties.setProperty("uploadDirectory", String.valueOf(this.uploadDirectory));
+        properties.setProperty("bufferLeakDetection", String.valueOf(this.bufferLeakDetection));
+        properties.setProperty("paramStoreDirectory", String.valueOf(this.paramStoreDirectory));
+        properties.setProperty("paramStoreSegmentSize", String.valueOf(this.paramStoreSegmentSize));
+        properties.setProperty("paramStoreCompactionInterval", String.valueOf(this.paramStoreCompactionInterval));
+        properties.setProperty("paramStoreMaxParams", String.valueOf(this.paramStoreMaxParams));
+        properties.setProperty("fileTransferThreshold", String.valueOf(this.fileTransferThreshold));
+        properties.setProperty("staticCacheSize", String.valueOf(this.staticCacheSize));
+        properties.setProperty("staticCacheValidity", String.valueOf(this.staticCacheValidity));
 
         try (FileOutputStream output = new FileOutputStream(filePath.toString())) {
             properties.store(output, "Server Configuration");
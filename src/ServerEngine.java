@@ -0,0 +1,22 @@
+import java.io.IOException;
+
+/**
+ * A connection engine that accepts clients and hands their HTTP requests to the ClientHandler logic.
+ * The engine in use is selected by the "engine" key of the config.ini file.
+ */
+public interface ServerEngine {
+
+    /**
+     * Starts the engine and serves incoming client connections until the server is stopped.
+     *
+     * @throws IOException if unable to open the listening socket
+     */
+    void start() throws IOException;
+
+    /**
+     * Stops accepting new connections and lets the requests in flight complete within the shutdown grace period.
+     * Their responses close the connection, and idle keep-alive connections are closed right away.
+     * Connections still open when the grace period is over are closed. Called once, by the JVM shutdown hook.
+     */
+    void shutdown();
+}
@@ -0,0 +1,86 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters shared by all the server components (accepted connections per acceptor, rejections, timeouts...).
+ * When a report interval is configured, a background thread periodically prints every counter that changed,
+ * together with its rate over the last interval.
+ */
+public class ServerMetrics {
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * Increments the given counter by one.
+     *
+     * @param counterName - the name of the counter, created on first use
+     */
+    public static void increment(String counterName) {
+        counters.computeIfAbsent(counterName, name -> new LongAdder()).increment();
+    }
+
+    /**
+     * @param counterName - the name of the counter
+     * @return the current value of the counter, 0 if it was never incremented
+     */
+    public static long get(String counterName) {
+        LongAdder counter = counters.get(counterName);
+        return (counter != null) ? counter.sum() : 0;
+    }
+
+    /**
+     * Starts a daemon thread that prints the counters every interval.
+     *
+     * @param intervalSeconds - the report interval, 0 disables the report
+     */
+    public static void startReporter(int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+
+        Thread reporterThread = new Thread(() -> reportPeriodically(intervalSeconds * 1000L), "metrics-reporter");
+        reporterThread.setDaemon(true);
+        reporterThread.start();
+    }
+
+    private static void reportPeriodically(long intervalMillis) {
+        Map<String, Long> previousValues = new TreeMap<>();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            StringBuilder report = new StringBuilder();
+            for (Map.Entry<String, Long> counter : snapshot().entrySet()) {
+                long delta = counter.getValue() - previousValues.getOrDefault(counter.getKey(), 0L);
+
+                if (delta != 0) {
+                    report.append(counter.getKey()).append('=').append(counter.getValue())
+                            .append(String.format(" (%.1f/s)", delta * 1000.0 / intervalMillis)).append('\n');
+                }
+                previousValues.put(counter.getKey(), counter.getValue());
+            }
+
+            if (report.length() > 0) {
+                System.out.println("Server Metrics:\n" + report);
+            }
+        }
+    }
+
+    private static Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+
+        return values;
+    }
+}
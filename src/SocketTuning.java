@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * Applies the socket options of the server configuration to listening and accepted sockets,
+ * for both the java.net sockets of the blocking engine and the channels of the non-blocking engines.
+ * Options left at their default value in the configuration are not touched.
+ */
+public class SocketTuning {
+
+    private SocketTuning() {
+    }
+
+    /**
+     * @param serverConfig - the server configuration
+     * @return the address the listening sockets bind to
+     */
+    public static InetSocketAddress listenAddress(ServerConfiguration serverConfig) {
+        if (serverConfig.getBindAddress().isEmpty()) {
+            return new InetSocketAddress(serverConfig.getPort());
+        }
+
+        return new InetSocketAddress(serverConfig.getBindAddress(), serverConfig.getPort());
+    }
+
+    /**
+     * Applies the options of a listening socket, must be called before it is bound.
+     * SO_RCVBUF is set on the listener so that the accepted sockets inherit it before the TCP handshake,
+     * which is the only way a receive window above 64K can be negotiated.
+     *
+     * @param serverSocket - the unbound listening socket
+     * @param serverConfig - the server configuration
+     * @throws IOException if an option cannot be set
+     */
+    public static void configureListener(ServerSocket serverSocket, ServerConfiguration serverConfig) throws IOException {
+        if (serverConfig.getReceiveBufferSize() > 0) {
+            serverSocket.setReceiveBufferSize(serverConfig.getReceiveBufferSize());
+        }
+    }
+
+    /**
+     * Applies the options of a listening channel, must be called before it is bound.
+     *
+     * @param serverChannel - the unbound listening channel
+     * @param serverConfig - the server configuration
+     * @throws IOException if an option cannot be set
+     */
+    public static void configureListener(NetworkChannel serverChannel, ServerConfiguration serverConfig) throws IOException {
+        if (serverConfig.getReceiveBufferSize() > 0) {
+            setIfSupported(serverChannel, StandardSocketOptions.SO_RCVBUF, serverConfig.getReceiveBufferSize());
+        }
+    }
+
+    /**
+     * Applies the options of an accepted client socket.
+     *
+     * @param clientSocket - the accepted socket
+     * @param serverConfig - the server configuration
+     * @throws IOException if an option cannot be set
+     */
+    public static void configureClient(Socket clientSocket, ServerConfiguration serverConfig) throws IOException {
+        clientSocket.setTcpNoDelay(serverConfig.isTcpNoDelay());
+        clientSocket.setKeepAlive(serverConfig.isSoKeepAlive());
+
+        if (serverConfig.getSendBufferSize() > 0) {
+            clientSocket.setSendBufferSize(serverConfig.getSendBufferSize());
+        }
+
+        if (serverConfig.getSoLinger() >= 0) {
+            clientSocket.setSoLinger(true, serverConfig.getSoLinger());
+        }
+    }
+
+    /**
+     * Applies the options of an accepted client channel. Options the channel type does not support
+     * (e.g. SO_LINGER on asynchronous channels) are skipped.
+     *
+     * @param clientChannel - the accepted channel
+     * @param serverConfig - the server configuration
+     * @throws IOException if an option cannot be set
+     */
+    public static void configureClient(NetworkChannel clientChannel, ServerConfiguration serverConfig) throws IOException {
+        setIfSupported(clientChannel, StandardSocketOptions.TCP_NODELAY, serverConfig.isTcpNoDelay());
+        setIfSupported(clientChannel, StandardSocketOptions.SO_KEEPALIVE, serverConfig.isSoKeepAlive());
+
+        if (serverConfig.getSendBufferSize() > 0) {
+            setIfSupported(clientChannel, StandardSocketOptions.SO_SNDBUF, serverConfig.getSendBufferSize());
+        }
+
+        if (serverConfig.getSoLinger() >= 0) {
+            setIfSupported(clientChannel, StandardSocketOptions.SO_LINGER, serverConfig.getSoLinger());
+        }
+    }
+
+    private static <T> void setIfSupported(NetworkChannel channel, SocketOption<T> option, T value) throws IOException {
+        if (channel.supportedOptions().contains(option)) {
+            channel.setOption(option, value);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the static files under the root directory that are small enough to be read into memory, i.e. below
+ * fileTransferThreshold bytes, larger files are streamed from disk anyway. An entry holds the file content with its
+ * modification time and pre-encoded response header, which carries its length and content type.
+ * The cache is bounded by the total size of the cached files, and evicts the least recently used files first.
+ * A hit takes no lock: it only looks the file up in a concurrent map and stamps the entry with the time of the access.
+ * The stamps order the entries for eviction, which only runs when a file read into the cache exceeds the bound.
+ * A cached file is served without any disk I/O for staticCacheValidity milliseconds, then its modification time and
+ * size are checked again, and the file is read again if either changed.
+ */
+public class StaticContentCache {
+    private static final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    private static final AtomicLong cachedBytes = new AtomicLong();
+    // Only one thread evicts at a time, hits never wait for it.
+    private static final Object evictionLock = new Object();
+
+    private static volatile long maxCachedBytes = 0;
+    private static volatile long maxFileSize = 0;
+    private static volatile long validityNanos = 0;
+
+    private StaticContentCache() {
+    }
+
+    /**
+     * A cached file. Its content must not be modified.
+     */
+    public static class Entry {
+        private final Path path;
+        private final byte[] content;
+        private final long lastModified;
+        private final String responseHeader;
+        private final byte[] encodedResponseHeader;
+        private volatile long validUntil;
+        private volatile long lastAccess;
+        // The last access as of the running eviction, which sorts by it while hits go on stamping lastAccess.
+        private long evictionOrder;
+
+        Entry(Path path, byte[] content, String contentType, long lastModified, long validUntil) {
+            this.path = path;
+            this.content = content;
+            this.lastModified = lastModified;
+            this.responseHeader = HTTPResponse.generateContentHeader(200, content.length, contentType);
+            this.encodedResponseHeader = HTTPResponse.encodeAscii(responseHeader);
+            this.validUntil = validUntil;
+            this.lastAccess = System.nanoTime();
+        }
+
+        /**
+         * @return the content of the file
+         */
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * @return the length of the file
+         */
+        public long getLength() {
+            return content.length;
+        }
+
+        /**
+         * @return the status line and the Content-Length and Content-Type headers of a "200 OK" response with the file
+         */
+        public String getResponseHeader() {
+            return responseHeader;
+        }
+
+        /**
+         * @return the response header, encoded
+         */
+        public byte[] getEncodedResponseHeader() {
+            return encodedResponseHeader;
+        }
+    }
+
+    /**
+     * @param serverConfig - the server configuration, for the cache size and validity and the file transfer threshold
+     */
+    public static void configure(ServerConfiguration serverConfig) {
+        maxCachedBytes = serverConfig.getStaticCacheSize();
+        // A negative maximal file size disables the cache.
+        maxFileSize = (maxCachedBytes > 0) ? Math.min(serverConfig.getFileTransferThreshold() - 1, maxCachedBytes) : -1;
+        validityNanos = serverConfig.getStaticCacheValidity() * 1_000_000L;
+    }
+
+    /**
+     * Gives the cached file, after checking it again if its validity ran out, or reads it into the cache.
+     *
+     * @param filePath - the normalized path of a requested file, checked to be within the root directory
+     * @param contentType - the content type of the file
+     * @return the cached file, or null if it does not exist, is not a regular file, or is too large to be cached
+     * @throws IOException if unable to read the file or its attributes
+     */
+    public static Entry get(Path filePath, String contentType) throws IOException {
+        if (maxFileSize < 0) {
+            return null;
+        }
+
+        Entry entry = entries.get(filePath);
+        long now = System.nanoTime();
+
+        if (entry != null) {
+            entry.lastAccess = now;
+
+            if (now - entry.validUntil < 0) {
+                return entry;
+            }
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            remove(filePath);
+            return null;
+        }
+
+        if (!attributes.isRegularFile() || attributes.size() > maxFileSize) {
+            remove(filePath);
+            return null;
+        }
+
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (entry != null && entry.lastModified == lastModified && entry.content.length == attributes.size()) {
+            entry.validUntil = now + validityNanos;
+            return entry;
+        }
+
+        // The modification time is taken before the file is read, so a change while it is read is seen next time.
+        byte[] content = Files.readAllBytes(filePath);
+        if (content.length > maxFileSize) {
+            remove(filePath);
+            return null;
+        }
+
+        entry = new Entry(filePath, content, contentType, lastModified, now + validityNanos);
+        put(entry);
+        return entry;
+    }
+
+    private static void put(Entry entry) {
+        Entry replaced = entries.put(entry.path, entry);
+        long total = cachedBytes.addAndGet(entry.content.length - ((replaced != null) ? replaced.content.length : 0));
+
+        if (total > maxCachedBytes) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    private static void remove(Path filePath) {
+        Entry removed = entries.remove(filePath);
+
+        if (removed != null) {
+            cachedBytes.addAndGet(-removed.content.length);
+        }
+    }
+
+    /**
+     * Evicts the entries with the oldest access stamps until the cached files fit into the bound again. The entries
+     * are sorted once per eviction, which only happens when a file is read into a full cache, so hits never pay for
+     * keeping an order.
+     */
+    private static void evictLeastRecentlyUsed() {
+        synchronized (evictionLock) {
+            if (cachedBytes.get() <= maxCachedBytes) {
+                return;
+            }
+
+            List<Entry> candidates = new ArrayList<>(entries.values());
+            for (Entry candidate : candidates) {
+                candidate.evictionOrder = candidate.lastAccess;
+            }
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.evictionOrder));
+
+            for (Entry candidate : candidates) {
+                if (cachedBytes.get() <= maxCachedBytes) {
+                    break;
+                }
+
+                // An entry replaced or removed meanwhile was accounted for by the thread that did it.
+                if (entries.remove(candidate.path, candidate)) {
+                    cachedBytes.addAndGet(-candidate.content.length);
+                    ServerMetrics.increment("staticcache.evicted");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single background thread that fires the read, write and request timeouts of the blocking engine.
+ * A blocking socket call cannot be given an overall deadline, so the watchdog interrupts it from the outside
+ * (by shutting down the socket input or closing the socket) when the deadline passes.
+ */
+public class TimeoutWatchdog {
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+
+    private TimeoutWatchdog() {
+    }
+
+    /**
+     * Runs the given action once the timeout expires, unless the returned future is cancelled first.
+     *
+     * @param action - the action that enforces the timeout
+     * @param timeoutMillis - the timeout in milliseconds
+     * @return the future to cancel once the guarded operation completed
+     */
+    public static ScheduledFuture<?> schedule(Runnable action, long timeoutMillis) {
+        return scheduler.schedule(action, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread watchdogThread = new Thread(runnable, "timeout-watchdog");
+            watchdogThread.setDaemon(true);
+            return watchdogThread;
+        });
+
+        // Most timeouts are cancelled long before they expire, so don't keep them queued until then.
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
@@ -1,15 +1,24 @@
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A TCP Multi-thread web server class.
  */
-public class WebServer {
+public class WebServer implements ServerEngine {
     private final ServerConfiguration serverConfig;
-    private final ExecutorService executorService;
+    private final WorkerPool workerPool;
+    private final ConnectionContext.Pool contextPool;
+    private final byte[] serviceUnavailableResponse;
+    private final Set<ClientHandler> activeHandlers = ConcurrentHashMap.newKeySet();
+    private volatile List<ServerSocket> listeners = List.of();
+    private volatile boolean isShuttingDown = false;
 
     /**
      * Constructs a WebServer object with the given server configuration.
@@ -18,34 +27,170 @@ public class WebServer {
      */
     public WebServer(ServerConfiguration serverConfig) {
         this.serverConfig = serverConfig;
-        this.executorService = Executors.newFixedThreadPool(serverConfig.getMaxThreads());
+        this.workerPool = new WorkerPool(serverConfig);
+        this.contextPool = new ConnectionContext.Pool(serverConfig);
+        this.serviceUnavailableResponse = HTTPResponse.encodeServiceUnavailable(serverConfig.getRetryAfter());
     }
 
     /**
      * Starts the web server and listens for incoming client connections.
      * Creates a new thread to handle each client request.
+     * With more than one acceptor thread, every acceptor gets its own listening socket bound to the same port
+     * with SO_REUSEPORT so the kernel spreads new connections across them. Where SO_REUSEPORT is not supported
+     * the acceptors share a single listening socket.
      */
+    @Override
     public void start() throws IOException {
-        try (ServerSocket serverSocket = new ServerSocket(serverConfig.getPort())) {
-            System.out.println("Web server started on port " + serverConfig.getPort());
-
-            while (true) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    executorService.execute(new ClientHandler(clientSocket, serverConfig));
-                } catch (Exception | StackOverflowError e) {
-                    notifyInternalServerError(null, e.getMessage());
-                }
+        listeners = openListeners();
+        System.out.println("Web server started on port " + serverConfig.getPort() + " (" + serverConfig.getAcceptorThreads()
+                + " acceptors, " + listeners.size() + " listening sockets)");
+
+        try {
+            for (int i = 1; i < serverConfig.getAcceptorThreads(); i++) {
+                ServerSocket listener = listeners.get(i % listeners.size());
+                int acceptorId = i;
+                new Thread(() -> acceptConnections(listener, acceptorId), "acceptor-" + i).start();
             }
+
+            acceptConnections(listeners.get(0), 0);
         } finally {
+            closeListeners();
+        }
+    }
+
+    /**
+     * Closes the listening sockets, which stops the acceptors, then waits for the worker threads to complete the
+     * connections they serve. Connections waiting for a worker are still served, with a single request each.
+     */
+    @Override
+    public void shutdown() {
+        System.out.println("Shutting down, draining " + activeHandlers.size() + " connections for up to "
+                + serverConfig.getShutdownGracePeriod() + " ms");
+        isShuttingDown = true;
+        closeListeners();
+
+        for (ClientHandler clientHandler : activeHandlers) {
+            clientHandler.drain();
+        }
+
+        if (!workerPool.shutdownGracefully(serverConfig.getShutdownGracePeriod())) {
+            System.out.println("Shutdown grace period is over, closing " + activeHandlers.size() + " connections");
+
+            for (ClientHandler clientHandler : activeHandlers) {
+                clientHandler.abort();
+            }
+            workerPool.shutdownNow();
+        }
+
+        System.out.println("Web server stopped");
+    }
+
+    private void closeListeners() {
+        for (ServerSocket listener : listeners) {
             try {
-                executorService.shutdownNow();
-            } catch (Exception e) {
-                notifyInternalServerError(null, e.getMessage());
+                listener.close();
+            } catch (IOException e) {
+                System.out.println("Error closing resources: " + e.getMessage());
             }
         }
     }
 
+    /**
+     * Accepts client connections from the given listening socket and hands them to the worker threads.
+     *
+     * @param serverSocket - the listening socket
+     * @param acceptorId - the number of the acceptor, used to name its accept counter
+     */
+    private void acceptConnections(ServerSocket serverSocket, int acceptorId) {
+        String acceptedCounterName = "acceptor-" + acceptorId + ".accepted";
+
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                ServerMetrics.increment(acceptedCounterName);
+                ClientHandler clientHandler = new ClientHandler(clientSocket, serverConfig, contextPool);
+                activeHandlers.add(clientHandler);
+
+                // A connection accepted while the listeners were being closed is drained like the others.
+                if (isShuttingDown) {
+                    clientHandler.drain();
+                }
+
+                workerPool.execute(() -> {
+                    try {
+                        clientHandler.run();
+                    } finally {
+                        activeHandlers.remove(clientHandler);
+                    }
+                }, () -> {
+                    activeHandlers.remove(clientHandler);
+                    rejectConnection(clientSocket);
+                });
+            } catch (Exception | StackOverflowError e) {
+                if (!serverSocket.isClosed()) {
+                    notifyInternalServerError(null, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers a connection the workers have no room for, or that waited too long for one, with the
+     * pre-encoded 503 response and closes it, without reading its request.
+     *
+     * @param clientSocket - the rejected client socket
+     */
+    private void rejectConnection(Socket clientSocket) {
+        try (clientSocket) {
+            clientSocket.getOutputStream().write(serviceUnavailableResponse);
+        } catch (IOException e) {
+            System.out.println("Client connection has disconnected " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the listening sockets, one per acceptor thread if SO_REUSEPORT is supported, otherwise a single one.
+     *
+     * @return the bound listening sockets
+     * @throws IOException if unable to bind to the server port
+     */
+    private List<ServerSocket> openListeners() throws IOException {
+        boolean shardListeners = serverConfig.getAcceptorThreads() > 1 && isReusePortSupported();
+        int listenersCount = shardListeners ? serverConfig.getAcceptorThreads() : 1;
+        List<ServerSocket> listeners = new ArrayList<>();
+
+        if (serverConfig.getAcceptorThreads() > 1 && !shardListeners) {
+            System.out.println("SO_REUSEPORT is not supported, the acceptor threads share one listening socket.");
+        }
+
+        try {
+            for (int i = 0; i < listenersCount; i++) {
+                // The socket of a channel accepts sockets that have a channel too, which file transfers go through.
+                ServerSocket serverSocket = ServerSocketChannel.open().socket();
+                listeners.add(serverSocket);
+
+                if (shardListeners) {
+                    serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                SocketTuning.configureListener(serverSocket, serverConfig);
+                serverSocket.bind(SocketTuning.listenAddress(serverConfig), serverConfig.getBacklog());
+            }
+        } catch (IOException e) {
+            for (ServerSocket listener : listeners) {
+                listener.close();
+            }
+            throw e;
+        }
+
+        return listeners;
+    }
+
+    private static boolean isReusePortSupported() throws IOException {
+        try (ServerSocket probe = new ServerSocket()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
     /**
      * Notifies about an internal server error by sending a corresponding HTTP response or printing a message to the console.
      *
@@ -60,14 +205,41 @@ public class WebServer {
         }
     }
 
+    /**
+     * Creates the connection engine listed in the server configuration.
+     *
+     * @param serverConfig - the server configuration
+     * @return the blocking WebServer, the selector based NioWebServer for "engine=nio",
+     * or the completion based AsyncWebServer for "engine=async"
+     */
+    private static ServerEngine createEngine(ServerConfiguration serverConfig) {
+        if (serverConfig.getEngine().equals("nio")) {
+            return new NioWebServer(serverConfig);
+        }
+
+        if (serverConfig.getEngine().equals("async")) {
+            return new AsyncWebServer(serverConfig);
+        }
+
+        return new WebServer(serverConfig);
+    }
+
     /**
      * Entry point for starting the web server.
      */
     public static void main(String[] args) {
         try {
             ServerConfiguration serverConfig = ServerConfiguration.loadConfig("./config.ini");
-            WebServer webServer = new WebServer(serverConfig);
-            webServer.start();
+            System.out.println("Socket options: " + serverConfig.describeSocketOptions());
+            ServerEngine serverEngine = createEngine(serverConfig);
+            Runtime.getRuntime().addShutdownHook(new Thread(serverEngine::shutdown, "shutdown-hook"));
+            ServerMetrics.startReporter(serverConfig.getMetricsInterval());
+            BufferPool.configure(serverConfig.isBufferLeakDetection());
+            ParamsPage.load(serverConfig);
+            StaticContentCache.configure(serverConfig);
+            ParamStore.open(serverConfig);
+            AdminListener.start(serverConfig);
+            serverEngine.start();
         } catch (Exception e) {
             notifyInternalServerError(null, e.getMessage());
         }
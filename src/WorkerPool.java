@@ -0,0 +1,217 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The threads that run the ClientHandler logic for both connection engines.
+ * In "platform" thread mode this is a fixed pool of maxThreads threads.
+ * In "virtual" thread mode every task gets its own virtual thread and maxThreads becomes a concurrency limit
+ * enforced by a semaphore, so waiting tasks cost a parked virtual thread instead of an OS thread. On a JVM without
+ * virtual threads the "virtual" mode falls back to the platform mode.
+ * In both modes at most queueCapacity tasks may wait for a worker, further tasks are rejected so that the
+ * engine can shed the load instead of queueing requests that will be answered too late anyway.
+ *
+ * On top of the fixed bound the queue is managed CoDel style: the time every task waited for its worker is
+ * measured, and if even the shortest wait of a whole interval was above the target delay the queue is
+ * considered overloaded. While overloaded, tasks that waited longer than twice the target are dropped, and
+ * the platform queue is served newest first so the clients that are still waiting get their answers.
+ */
+public class WorkerPool {
+    private final ExecutorService executorService;
+    private final Semaphore concurrencyLimit;
+    private final AdaptiveTaskQueue taskQueue;
+    private final AtomicInteger waitingTasks = new AtomicInteger();
+    private final int queueCapacity;
+    private final boolean isAdaptiveLifo;
+
+    private final ReentrantLock queueDelayLock = new ReentrantLock();
+    private final long targetDelayNanos;
+    private final long intervalNanos;
+    private long intervalEnd;
+    private long minDelayInInterval = Long.MAX_VALUE;
+    private volatile boolean isOverloaded = false;
+
+    /**
+     * Constructs a WorkerPool object according to the thread mode in the server configuration.
+     *
+     * @param serverConfig - the server configuration
+     */
+    public WorkerPool(ServerConfiguration serverConfig) {
+        this.queueCapacity = serverConfig.getQueueCapacity();
+        this.isAdaptiveLifo = serverConfig.isAdaptiveLifo();
+        this.targetDelayNanos = TimeUnit.MILLISECONDS.toNanos(serverConfig.getQueueTargetDelay());
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(serverConfig.getQueueInterval());
+        this.intervalEnd = System.nanoTime() + intervalNanos;
+
+        ExecutorService virtualThreadExecutor = serverConfig.getThreadMode().equals("virtual") ? createVirtualThreadExecutor() : null;
+
+        if (virtualThreadExecutor != null) {
+            this.executorService = virtualThreadExecutor;
+            this.concurrencyLimit = new Semaphore(serverConfig.getMaxThreads());
+            this.taskQueue = null;
+        } else {
+            this.taskQueue = new AdaptiveTaskQueue(queueCapacity);
+            this.executorService = new ThreadPoolExecutor(serverConfig.getMaxThreads(), serverConfig.getMaxThreads(),
+                    0L, TimeUnit.MILLISECONDS, taskQueue);
+            this.concurrencyLimit = null;
+        }
+    }
+
+    /**
+     * Runs the given task on a worker thread.
+     * If the queue of waiting tasks is full, the rejection handler runs right away on the calling thread.
+     * If the task waited too long for its worker while the queue is overloaded, the rejection handler runs
+     * on the worker thread instead of the task.
+     *
+     * @param task - the task to run
+     * @param onRejected - answers the client of a task that will not run, typically with a 503 response
+     */
+    public void execute(Runnable task, Runnable onRejected) {
+        QueuedTask queuedTask = new QueuedTask(task, onRejected);
+
+        try {
+            if (concurrencyLimit == null) {
+                executorService.execute(queuedTask);
+            } else {
+                if (waitingTasks.incrementAndGet() > queueCapacity) {
+                    waitingTasks.decrementAndGet();
+                    throw new RejectedExecutionException("Worker queue is full");
+                }
+
+                executorService.execute(() -> runWithinConcurrencyLimit(queuedTask));
+            }
+        } catch (RejectedExecutionException e) {
+            ServerMetrics.increment("workers.rejected");
+            onRejected.run();
+        }
+    }
+
+    /**
+     * Stops taking new tasks, which are rejected from now on, and waits for the queued and running ones to complete.
+     *
+     * @param timeoutMillis - how long to wait, in milliseconds
+     * @return true if all the tasks completed in time
+     */
+    public boolean shutdownGracefully(long timeoutMillis) {
+        executorService.shutdown();
+
+        try {
+            return executorService.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Interrupts the running tasks and stops the worker threads.
+     */
+    public void shutdownNow() {
+        executorService.shutdownNow();
+    }
+
+    private void runWithinConcurrencyLimit(QueuedTask task) {
+        try {
+            concurrencyLimit.acquire();
+        } catch (InterruptedException e) {
+            // The task will not run, but its client still has to be answered or closed. The interrupt is restored
+            // afterwards, as an interrupted thread would close an interruptible channel instead of writing to it.
+            ServerMetrics.increment("workers.rejected");
+            task.onRejected.run();
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            waitingTasks.decrementAndGet();
+        }
+
+        try {
+            task.run();
+        } finally {
+            concurrencyLimit.release();
+        }
+    }
+
+    /**
+     * Records the time a task waited for its worker and decides whether it should still run.
+     *
+     * @param queueDelayNanos - how long the task waited
+     * @return true if the task should be dropped
+     */
+    private boolean shouldDrop(long queueDelayNanos) {
+        long now = System.nanoTime();
+
+        queueDelayLock.lock();
+        try {
+            if (now - intervalEnd >= 0) {
+                boolean wasOverloaded = isOverloaded;
+                isOverloaded = minDelayInInterval > targetDelayNanos;
+                minDelayInInterval = queueDelayNanos;
+                intervalEnd = now + intervalNanos;
+
+                if (isOverloaded != wasOverloaded) {
+                    onOverloadChanged();
+                }
+            } else if (queueDelayNanos < minDelayInInterval) {
+                minDelayInInterval = queueDelayNanos;
+            }
+        } finally {
+            queueDelayLock.unlock();
+        }
+
+        return isOverloaded && queueDelayNanos > 2 * targetDelayNanos;
+    }
+
+    private void onOverloadChanged() {
+        if (taskQueue != null && isAdaptiveLifo) {
+            taskQueue.setLifo(isOverloaded);
+        }
+
+        ServerMetrics.increment(isOverloaded ? "workers.overloaded" : "workers.recovered");
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task.
+     * The executor is looked up reflectively so the server still compiles and runs on a JDK without virtual
+     * threads. There the pool falls back to the fixed pool of platform threads, as a thread per task would not be
+     * bounded by anything.
+     *
+     * @return the virtual thread per task executor, or null if virtual threads are unavailable
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Warning: virtual threads are not supported by this JVM, using the platform thread pool instead.");
+            return null;
+        }
+    }
+
+    /**
+     * A task together with the time it was queued and the handler that answers its client if it is dropped.
+     */
+    private class QueuedTask implements Runnable {
+        private final Runnable task;
+        private final Runnable onRejected;
+        private final long queuedAt = System.nanoTime();
+
+        QueuedTask(Runnable task, Runnable onRejected) {
+            this.task = task;
+            this.onRejected = onRejected;
+        }
+
+        @Override
+        public void run() {
+            if (shouldDrop(System.nanoTime() - queuedAt)) {
+                ServerMetrics.increment("workers.dropped");
+                onRejected.run();
+            } else {
+                task.run();
+            }
+        }
+    }
+}
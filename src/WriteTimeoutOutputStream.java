@@ -0,0 +1,125 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * An output stream over a client socket that aborts the connection when a single write or flush does not
+ * complete within the write timeout, so that a client that stops reading a large response cannot pin a worker.
+ */
+public class WriteTimeoutOutputStream extends FilterOutputStream {
+    // Every slice of a file transfer has to complete within the write timeout.
+    private static final long TRANSFER_SLICE_SIZE = 1048576;
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    private final Socket clientSocket;
+    private final long writeTimeoutMillis;
+
+    /**
+     * @param clientSocket - the socket the stream writes to
+     * @param writeTimeoutMillis - the maximal duration of a single write, in milliseconds
+     * @throws IOException if unable to get the socket output stream
+     */
+    public WriteTimeoutOutputStream(Socket clientSocket, long writeTimeoutMillis) throws IOException {
+        super(clientSocket.getOutputStream());
+        this.clientSocket = clientSocket;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ScheduledFuture<?> writeTimeout = armWriteTimeout();
+        try {
+            out.write(b);
+        } finally {
+            writeTimeout.cancel(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ScheduledFuture<?> writeTimeout = armWriteTimeout();
+        try {
+            out.write(b, off, len);
+        } finally {
+            writeTimeout.cancel(false);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ScheduledFuture<?> writeTimeout = armWriteTimeout();
+        try {
+            out.flush();
+        } finally {
+            writeTimeout.cancel(false);
+        }
+    }
+
+    /**
+     * Writes a region of a file to the socket. A socket accepted through a ServerSocketChannel has a channel,
+     * and FileChannel.transferTo() lets the kernel send the file (sendfile) without copying it into the JVM,
+     * other sockets get the file copied through a buffer.
+     *
+     * @param file - the file
+     * @param position - the position of the region in the file
+     * @param length - the length of the region
+     * @throws IOException if unable to read the file or to write to the socket
+     */
+    public void transferFrom(FileChannel file, long position, long length) throws IOException {
+        SocketChannel socketChannel = clientSocket.getChannel();
+        long end = position + length;
+
+        if (socketChannel == null) {
+            copyFrom(file, position, end);
+            return;
+        }
+
+        while (position < end) {
+            ScheduledFuture<?> writeTimeout = armWriteTimeout();
+            try {
+                long transferred = file.transferTo(position, Math.min(TRANSFER_SLICE_SIZE, end - position), socketChannel);
+
+                // A blocking channel only transfers nothing once the end of the file is reached.
+                if (transferred <= 0) {
+                    throw new IOException("File shrank while being sent");
+                }
+                position += transferred;
+            } finally {
+                writeTimeout.cancel(false);
+            }
+        }
+    }
+
+    private void copyFrom(FileChannel file, long position, long end) throws IOException {
+        ByteBuffer copyBuffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, end - position));
+
+        while (position < end) {
+            copyBuffer.clear().limit((int) Math.min(copyBuffer.capacity(), end - position));
+            if (file.read(copyBuffer, position) < 0) {
+                throw new IOException("File shrank while being sent");
+            }
+
+            write(copyBuffer.array(), 0, copyBuffer.position());
+            position += copyBuffer.position();
+        }
+    }
+
+    private ScheduledFuture<?> armWriteTimeout() {
+        return TimeoutWatchdog.schedule(this::abortConnection, writeTimeoutMillis);
+    }
+
+    private void abortConnection() {
+        ServerMetrics.increment("timeouts.write");
+
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing resources: " + e.getMessage());
+        }
+    }
+}